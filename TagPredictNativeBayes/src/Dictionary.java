@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns strings to dense int IDs, 0 to size() - 1, in the order they are first added.
+ */
+public class Dictionary implements Vocabulary {
+
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+
+    /**
+     * Get the ID of s, assigning the next free one if s is new.
+     */
+    public int add(String s) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s);
+        }
+        return id;
+    }
+
+    /**
+     * Get the ID of s, or -1 if s is not in the dictionary.
+     */
+    @Override
+    public int id(String s) {
+        Integer id = ids.get(s);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public String get(int id) {
+        return strings.get(id);
+    }
+
+    @Override
+    public int size() {
+        return strings.size();
+    }
+}
@@ -12,9 +12,7 @@ public class Evaluate {
     public static void main(String[] args) throws IOException, ClassNotFoundException {
         // Open model
         System.out.print("Loading model...");
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream("model"));
-        NaiveBayes model = (NaiveBayes) ois.readObject();
-        ois.close();
+        NaiveBayes model = ModelFile.load("model");
         System.out.println("Done");
 
         Map<String, Integer> nTruePositive = new HashMap<String, Integer>(nTags);
@@ -23,17 +21,16 @@ public class Evaluate {
         double hammingLoss = 0;
 
         // read the test data
-        BufferedReader br = new BufferedReader(new FileReader("test.data"));
+        RecordReader record = new RecordReader(new FileInputStream("test.data"));
         int nCases = 0;
-        String line;
-        while ((line = br.readLine()) != null) {
-            line = line.replaceAll("[^\\x20-\\x7F]", "_");
+        while (record.next()) {
             nCases++;
-            String[] split = line.split("#\\$#");
-            String no = split[0];
-            String description = split[1];
-            List<String> tagsCorrect = Arrays.asList(split[2].split(","));
-            List<String> tagsPredicted = model.test(description).subList(0, topN);
+            CharSequence no = record.id();
+            List<String> tagsCorrect = new ArrayList<String>(record.tagCount());
+            for (int i = 0; i < record.tagCount(); i++) {
+                tagsCorrect.add(record.tag(i).toString());
+            }
+            List<String> tagsPredicted = model.topK(record, topN);
 
             // Print predicted labels
             System.out.println(String.format("%s: %s", no, tagsPredicted.toString()));
@@ -60,6 +57,7 @@ public class Evaluate {
             // For calculating Hamming Loss
             hammingLoss += (double) (tagsCorrect.size() + tagsPredicted.size() - nInter * 2) / (double) nTags;
         }
+        record.close();
 
         double sumTP = sumUpValue(nTruePositive);
         double sumFP = sumUpValue(nFalsePositive);
@@ -29,16 +29,16 @@ public class EvaluateRandom {
         generateTagList();
 
         // read the test data
-        BufferedReader br = new BufferedReader(new FileReader("test.data"));
+        RecordReader record = new RecordReader(new FileReader("test.data"));
         int nCases = 0;
-        String line;
-        while ((line = br.readLine()) != null) {
-            line = line.replaceAll("[^\\x20-\\x7F]", "_");
+        while (record.next()) {
             nCases++;
-            String[] split = line.split("#\\$#");
-            String no = split[0];
-            String description = split[1];
-            List<String> tagsCorrect = Arrays.asList(split[2].split(","));
+            CharSequence no = record.id();
+            CharSequence description = record.description();
+            List<String> tagsCorrect = new ArrayList<String>(record.tagCount());
+            for (int i = 0; i < record.tagCount(); i++) {
+                tagsCorrect.add(record.tag(i).toString());
+            }
             List<String> tagsPredicted = new ArrayList<String>(nTags);
             for (int i = 0; i < topN; i++) {
                 tagsPredicted.add(tagList.get((int)(Math.random() * nTags)));
@@ -69,6 +69,7 @@ public class EvaluateRandom {
             // For calculating Hamming Loss
             hammingLoss += (double) (tagsCorrect.size() + tagsPredicted.size() - nInter * 2) / (double) nTags;
         }
+        record.close();
 
         double sumTP = sumUpValue(nTruePositive);
         double sumFP = sumUpValue(nFalsePositive);
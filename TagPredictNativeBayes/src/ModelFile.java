@@ -0,0 +1,220 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary file of a trained NaiveBayes model.
+ *
+ * A model is loaded by mapping the file: the word vocabulary and the Scorer tables are views
+ * of the mapped pages, so loading copies nothing but the tags, and JVMs loading the same file
+ * share its pages.
+ *
+ * The Scorer tables are written in the byte order of the machine, recorded in the header, so
+ * that scoring reads them from the mapped pages without swapping bytes; a machine of the
+ * other order still loads the file, swapping on each read. The rest is big-endian.
+ *
+ * Layout, each section starting at a multiple of 8 bytes:
+ * <pre>
+ *   header     int magic, int version, int nTags, int nWords, int nSeen,
+ *              int byteOrder of logPrior to logRatio, 0 big-endian or 1 little-endian
+ *   tags       int offset[nTags + 1], then the UTF-8 bytes of the tags
+ *   words      a MappedVocabulary of the words
+ *   logPrior   double[nTags]
+ *   logUnseen  double[nTags]
+ *   tagStart   int[nTags + 1]     per-tag CSR of the (tag, word) pairs seen in training
+ *   seenWord   int[nSeen]
+ *   logProb    double[nSeen]
+ *   wordStart  int[nWords + 1]    the same pairs per word, which is what scoring reads
+ *   wordTag    int[nSeen]
+ *   logRatio   double[nSeen]
+ * </pre>
+ */
+public class ModelFile {
+
+    static final int MAGIC = 0x4E424159; // "NBAY"
+    static final int VERSION = 3;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static void save(NaiveBayes model, String fileName) throws IOException {
+        Scorer scorer = model.scorer;
+        int nTags = scorer.nTags;
+        int nWords = scorer.nWords;
+        int nSeen = scorer.seenWord.capacity();
+
+        byte[][] tags = new byte[nTags][];
+        for (int tag = 0; tag < nTags; tag++) {
+            tags[tag] = model.tagDict.get(tag).getBytes(UTF_8);
+        }
+        List<String> words = new ArrayList<String>(nWords);
+        for (int word = 0; word < nWords; word++) {
+            words.add(model.wordDict.get(word));
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            int pos = 0;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nTags);
+            out.writeInt(nWords);
+            out.writeInt(nSeen);
+            out.writeInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+            pos += 24;
+
+            int offset = 0;
+            for (byte[] s : tags) {
+                out.writeInt(offset);
+                offset += s.length;
+            }
+            out.writeInt(offset);
+            for (byte[] s : tags) {
+                out.write(s);
+            }
+            pos += 4 * (tags.length + 1) + offset;
+            pos = pad(out, pos);
+
+            pos = pad(out, pos + MappedVocabulary.write(out, words));
+
+            pos = pad(out, pos + write(out, scorer.logPrior));
+            pos = pad(out, pos + write(out, scorer.logUnseen));
+            pos = pad(out, pos + write(out, scorer.tagStart));
+            pos = pad(out, pos + write(out, scorer.seenWord));
+            pos = pad(out, pos + write(out, scorer.logProb));
+            pos = pad(out, pos + write(out, scorer.wordStart));
+            pos = pad(out, pos + write(out, scorer.wordTag));
+            pad(out, pos + write(out, scorer.logRatio));
+        } finally {
+            out.close();
+        }
+    }
+
+    public static NaiveBayes load(String fileName) throws IOException {
+        FileInputStream in = new FileInputStream(fileName);
+        MappedByteBuffer buf;
+        try {
+            FileChannel channel = in.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+
+        if (buf.limit() < 24 || buf.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " is not a model file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException(fileName + " has model version " + buf.getInt(4) + ", expected " + VERSION);
+        }
+        int nTags = buf.getInt(8);
+        int nWords = buf.getInt(12);
+        int nSeen = buf.getInt(16);
+        ByteOrder order = buf.getInt(20) == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        int pos = 24;
+
+        NaiveBayes model = new NaiveBayes();
+        model.tagDict = new Dictionary();
+        int bytesStart = pos + 4 * (nTags + 1);
+        byte[] bytes = new byte[buf.getInt(pos + 4 * nTags)];
+        ByteBuffer view = buf.duplicate();
+        view.position(bytesStart);
+        view.get(bytes);
+        for (int i = 0; i < nTags; i++) {
+            int from = buf.getInt(pos + 4 * i);
+            model.tagDict.add(new String(bytes, from, buf.getInt(pos + 4 * i + 4) - from, UTF_8));
+        }
+        pos = align(bytesStart + bytes.length);
+
+        view = buf.duplicate();
+        view.position(pos);
+        MappedVocabulary words = new MappedVocabulary(view);
+        if (words.size() != nWords) {
+            throw new IOException(fileName + " has " + words.size() + " words, expected " + nWords);
+        }
+        model.wordDict = words;
+        pos = align(pos + words.byteSize());
+
+        DoubleBuffer logPrior = doubles(buf, pos, nTags, order);
+        pos = align(pos + 8 * nTags);
+        DoubleBuffer logUnseen = doubles(buf, pos, nTags, order);
+        pos = align(pos + 8 * nTags);
+        IntBuffer tagStart = ints(buf, pos, nTags + 1, order);
+        pos = align(pos + 4 * (nTags + 1));
+        IntBuffer seenWord = ints(buf, pos, nSeen, order);
+        pos = align(pos + 4 * nSeen);
+        DoubleBuffer logProb = doubles(buf, pos, nSeen, order);
+        pos = align(pos + 8 * nSeen);
+        IntBuffer wordStart = ints(buf, pos, nWords + 1, order);
+        pos = align(pos + 4 * (nWords + 1));
+        IntBuffer wordTag = ints(buf, pos, nSeen, order);
+        pos = align(pos + 4 * nSeen);
+        DoubleBuffer logRatio = doubles(buf, pos, nSeen, order);
+
+        model.scorer = new Scorer(nTags, nWords, logPrior, logUnseen,
+                tagStart, seenWord, logProb, wordStart, wordTag, logRatio);
+        return model;
+    }
+
+    private static int align(int pos) {
+        return (pos + 7) & ~7;
+    }
+
+    private static int pad(DataOutputStream out, int pos) throws IOException {
+        while ((pos & 7) != 0) {
+            out.writeByte(0);
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int write(DataOutputStream out, IntBuffer b) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8192).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < b.capacity(); i++) {
+            if (bytes.remaining() < 4) flush(out, bytes);
+            bytes.putInt(b.get(i));
+        }
+        flush(out, bytes);
+        return 4 * b.capacity();
+    }
+
+    private static int write(DataOutputStream out, DoubleBuffer b) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(8192).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < b.capacity(); i++) {
+            if (bytes.remaining() < 8) flush(out, bytes);
+            bytes.putDouble(b.get(i));
+        }
+        flush(out, bytes);
+        return 8 * b.capacity();
+    }
+
+    private static void flush(DataOutputStream out, ByteBuffer bytes) throws IOException {
+        out.write(bytes.array(), 0, bytes.position());
+        bytes.clear();
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int pos, int size) throws IOException {
+        if (pos + size > buf.limit()) {
+            throw new IOException("Model file is truncated");
+        }
+        ByteBuffer b = buf.duplicate();
+        b.position(pos);
+        b.limit(pos + size);
+        return b.slice();
+    }
+
+    private static IntBuffer ints(ByteBuffer buf, int pos, int n, ByteOrder order) throws IOException {
+        // slice() is big-endian whatever buf is, so the order is set on the section
+        return section(buf, pos, 4 * n).order(order).asIntBuffer();
+    }
+
+    private static DoubleBuffer doubles(ByteBuffer buf, int pos, int n, ByteOrder order) throws IOException {
+        return section(buf, pos, 8 * n).order(order).asDoubleBuffer();
+    }
+}
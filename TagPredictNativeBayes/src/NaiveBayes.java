@@ -1,184 +1,501 @@
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.tartarus.snowball.SnowballStemmer;
-import org.tartarus.snowball.ext.englishStemmer;
-
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Pattern;
 
 
-public class NaiveBayes implements Serializable {
+public class NaiveBayes {
 
     // The Language parameter
     static private double alpha = 0.1;
 
-    HashMap<String, Double> priorProb;
-    HashMap<String, HashMap<String, Double>> posteriorProb;
-    HashMap<String, Integer> wordCount;
-    HashMap<String, Integer> tagCount;
-
-    private static ArrayList<String> cutWords(String text) {
-        SnowballStemmer stemmer = new englishStemmer();
-        ArrayList<String> words = new ArrayList<String>();
-        // using ApacheLucene StandardAnalyzer to cut words
-        Reader reader = new StringReader(text);
-        Analyzer analyzer = new StandardAnalyzer();
+    // Words and tags kept by training, each with a dense ID; a loaded model maps its words
+    Vocabulary wordDict;
+    Dictionary tagDict;
+
+    // Probabilities, in log space, indexed by tag ID and word ID
+    Scorer scorer;
+
+    private static void cutWords(CharSequence text, CharSequence raw, ArrayList<String> words) {
         try {
-            TokenStream tokenStream = analyzer.tokenStream("", reader);
-            CharTermAttribute term = tokenStream.getAttribute(CharTermAttribute.class);
-            tokenStream.reset();
-            while (tokenStream.incrementToken()) {
-                String word = term.toString();
-                // if it is number, just skip
-                if (word.matches("^\\d+(\\.\\d+)?$")) continue;
-                // Stemming
-                stemmer.setCurrent(word);
-                if (stemmer.stem()) {
-                    words.add(stemmer.getCurrent());
-                } else {
-                    words.add(word);
-                }
-            }
+            Tokenizer.get().cutWords(text, raw, words);
         } catch (IOException e) {
             // I believe this is impossible...
             e.printStackTrace();
-        } finally {
-            analyzer.close();
         }
-        return words;
     }
 
-    public void train(String dataFile) throws IOException {
-        wordCount = new HashMap<String, Integer>();
-        tagCount = new HashMap<String, Integer>();
-        HashMap<String, HashMap<String, Integer>> tagWordCount = new HashMap<String, HashMap<String, Integer>>();
+    private static void cutWords(RecordReader record, ArrayList<String> words) {
+        try {
+            Tokenizer.get().cutWords(record, words);
+        } catch (IOException e) {
+            // I believe this is impossible...
+            e.printStackTrace();
+        }
+    }
 
-        // Reading Data File
-        BufferedReader br = new BufferedReader(new FileReader(dataFile));
-        String line;
+    private static int[] grow(int[] a, int minSize) {
+        if (a.length >= minSize) return a;
+        return Arrays.copyOf(a, Math.max(minSize, a.length * 2));
+    }
+
+    private static long[] grow(long[] a, int minSize) {
+        if (a.length >= minSize) return a;
+        return Arrays.copyOf(a, Math.max(minSize, a.length * 2));
+    }
+
+    // Lines counted by one task of parallel training
+    static private int chunkLines = 512;
+
+    /**
+     * Counts of the words seen with one tag, by word ID, in an open-addressing table, so a
+     * tag costs the words it was seen with rather than the whole vocabulary.
+     */
+    static class WordCounts {
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private int size = 0;
+        // Sum of all the counts
+        int total = 0;
+
+        WordCounts() {
+            Arrays.fill(keys, -1);
+        }
+
+        void add(int word, int n) {
+            total += n;
+            int mask = keys.length - 1;
+            int i = (word * 0x9E3779B9) >>> 1 & mask;
+            while (keys[i] >= 0) {
+                if (keys[i] == word) {
+                    values[i] += n;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = word;
+            values[i] = n;
+            if (++size * 4 > keys.length * 3) rehash();
+        }
+
+        /**
+         * Add the counts of other, its word IDs mapped through wordMap. The table is grown
+         * once beforehand rather than while adding.
+         */
+        void addAll(WordCounts other, int[] wordMap) {
+            int capacity = keys.length;
+            while ((size + other.size) * 4 > capacity * 3) capacity *= 2;
+            if (capacity > keys.length) rehash(capacity);
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] >= 0) add(wordMap[other.keys[i]], other.values[i]);
+            }
+        }
+
+        private void rehash() {
+            rehash(keys.length * 2);
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, -1);
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] < 0) continue;
+                int i = (oldKeys[j] * 0x9E3779B9) >>> 1 & mask;
+                while (keys[i] >= 0) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        /**
+         * The word in slot i, or -1 if the slot is free.
+         */
+        int word(int i) {
+            return keys[i];
+        }
+
+        int count(int i) {
+            return values[i];
+        }
+    }
+
+    /**
+     * Counts of the training data. Every word and tag seen gets an ID here, the ones kept
+     * by training are renumbered later.
+     */
+    static class Counts {
+        Dictionary allWords = new Dictionary();
+        Dictionary allTags = new Dictionary();
+        int[] wordCount = new int[1024];
+        int[] tagCount = new int[64];
+        ArrayList<WordCounts> tagWordCount = new ArrayList<WordCounts>();
         int lineNumber = 0;
-        while ((line = br.readLine()) != null) {
-            if (line.trim().isEmpty()) continue;
-            // if it is not an empty line
+
+        private ArrayList<String> wordList = new ArrayList<String>();
+        private int[] wordIds = new int[64];
+
+        void add(RecordReader record) {
             lineNumber++;
-            String[] split = line.split("#\\$#");
-            String description = split[1].replaceAll("[^\\x20-\\x7F]", "_");
-            String[] tagList = split[2].split(",");
-            ArrayList<String> wordList = cutWords(description);
+            wordList.clear();
+            cutWords(record, wordList);
 
             // Count words
-            for (String word : wordList) {
-                if (wordCount.containsKey(word)) {
-                    wordCount.replace(word, wordCount.get(word) + 1);
-                } else {
-                    wordCount.put(word, 1);
-                }
+            int nWords = wordList.size();
+            wordIds = grow(wordIds, nWords);
+            for (int i = 0; i < nWords; i++) {
+                int word = allWords.add(wordList.get(i));
+                wordCount = grow(wordCount, word + 1);
+                wordCount[word]++;
+                wordIds[i] = word;
             }
 
             // Count tags
-            for (String tag : tagList) {
-                if (tagCount.containsKey(tag)) {
-                    tagCount.replace(tag, tagCount.get(tag) + 1);
-                } else {
-                    tagCount.put(tag, 1);
+            for (int t = 0; t < record.tagCount(); t++) {
+                int tag = allTags.add(record.tag(t).toString());
+                tagCount = grow(tagCount, tag + 1);
+                tagCount[tag]++;
+                if (tag == tagWordCount.size()) {
+                    tagWordCount.add(new WordCounts());
                 }
                 // Count words having this tag (for Bayes)
-                if (tagWordCount.containsKey(tag)) {
-                    HashMap<String, Integer> tagWord = tagWordCount.get(tag);
-                    for (String word : wordList) {
-                        if (tagWord.containsKey(word)) {
-                            tagWord.replace(word, tagWord.get(word) + 1);
-                        } else {
-                            tagWord.put(word, 1);
-                        }
-                    }
-                } else {
-                    HashMap<String, Integer> tagWord = new HashMap<String, Integer>();
-                    for (String word : wordList) {
-                        if (tagWord.containsKey(word)) {
-                            tagWord.replace(word, tagWord.get(word) + 1);
-                        } else {
-                            tagWord.put(word, 1);
-                        }
+                WordCounts tagWord = tagWordCount.get(tag);
+                for (int i = 0; i < nWords; i++) {
+                    tagWord.add(wordIds[i], 1);
+                }
+            }
+        }
+
+        /**
+         * Add the counts of lines following the ones counted here. Words and tags new to
+         * this table get IDs in the order other first saw them, so merging chunks in input
+         * order gives the IDs a serial count would.
+         */
+        void merge(Counts other) {
+            int[] wordMap = new int[other.allWords.size()];
+            for (int word = 0; word < wordMap.length; word++) {
+                wordMap[word] = allWords.add(other.allWords.get(word));
+                wordCount = grow(wordCount, wordMap[word] + 1);
+                wordCount[wordMap[word]] += other.wordCount[word];
+            }
+            for (int tag = 0; tag < other.allTags.size(); tag++) {
+                int to = allTags.add(other.allTags.get(tag));
+                tagCount = grow(tagCount, to + 1);
+                tagCount[to] += other.tagCount[tag];
+                if (to == tagWordCount.size()) {
+                    tagWordCount.add(new WordCounts());
+                }
+                // Only the words the tag was seen with in the chunk are added
+                tagWordCount.get(to).addAll(other.tagWordCount.get(tag), wordMap);
+            }
+            lineNumber += other.lineNumber;
+        }
+    }
+
+    public void train(String dataFile) throws IOException {
+        Counts counts = new Counts();
+        // Reading Data File
+        RecordReader record = new RecordReader(new FileInputStream(dataFile));
+        while (record.next()) {
+            if (record.isBlank()) continue;
+            // if it is not an empty line
+            counts.add(record);
+        }
+        record.close();
+        train(counts);
+    }
+
+    /**
+     * Same as train(dataFile), with the lines cut and counted by nThreads threads. Each task
+     * counts a chunk of lines into its own tables, and the tables are merged in input order,
+     * so the model is the same as a serial one.
+     */
+    public void train(String dataFile, int nThreads) throws IOException {
+        if (nThreads <= 1) {
+            train(dataFile);
+            return;
+        }
+        Counts counts = new Counts();
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        LinkedList<ForkJoinTask<Counts>> running = new LinkedList<ForkJoinTask<Counts>>();
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(dataFile));
+            String line;
+            StringBuilder chunk = new StringBuilder();
+            int nLines = 0;
+            while (true) {
+                line = br.readLine();
+                if (line != null) {
+                    chunk.append(line).append('\n');
+                    nLines++;
+                }
+                if (nLines == chunkLines || (line == null && nLines > 0)) {
+                    running.add(pool.submit(new CountTask(chunk.toString())));
+                    chunk.setLength(0);
+                    nLines = 0;
+                    // Keep a few chunks ahead of the merge, not the whole file
+                    if (running.size() > 2 * nThreads) {
+                        counts.merge(running.removeFirst().join());
                     }
-                    tagWordCount.put(tag, tagWord);
                 }
+                if (line == null) break;
+            }
+            br.close();
+            while (!running.isEmpty()) {
+                counts.merge(running.removeFirst().join());
             }
+        } finally {
+            pool.shutdown();
         }
-        br.close();
+        train(counts);
+    }
 
-        // Remove words which showing times < 3 or length < 3
-        Iterator<HashMap.Entry<String, Integer>> iter = wordCount.entrySet().iterator();
-        while (iter.hasNext()) {
-            HashMap.Entry<String, Integer> entry = iter.next();
-            if (entry.getValue() < 3 || entry.getKey().length() < 3) {
-                iter.remove();
+    private static class CountTask implements Callable<Counts> {
+        private final String lines;
+
+        CountTask(String lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public Counts call() throws IOException {
+            Counts counts = new Counts();
+            // The lines are already decoded, so the words are cut from the chars
+            RecordReader record = new RecordReader(new StringReader(lines));
+            while (record.next()) {
+                if (record.isBlank()) continue;
+                counts.add(record);
             }
+            return counts;
+        }
+    }
+
+    private void train(Counts counts) {
+        Dictionary allWords = counts.allWords;
+        Dictionary allTags = counts.allTags;
+        int[] wordCount = counts.wordCount;
+        int[] tagCount = counts.tagCount;
+        ArrayList<WordCounts> tagWordCount = counts.tagWordCount;
+        int lineNumber = counts.lineNumber;
+
+        // Remove words which showing times < 3 or length < 3
+        Dictionary keptWords = new Dictionary();
+        int[] wordMap = new int[allWords.size()];
+        for (int word = 0; word < allWords.size(); word++) {
+            String s = allWords.get(word);
+            wordMap[word] = wordCount[word] < 3 || s.length() < 3 ? -1 : keptWords.add(s);
         }
+        wordDict = keptWords;
 
         // Remove tags which showing times < 3
-        iter = tagCount.entrySet().iterator();
-        while (iter.hasNext()) {
-            HashMap.Entry<String, Integer> entry = iter.next();
-            if (entry.getValue() < 3) {
-                iter.remove();
-            }
+        tagDict = new Dictionary();
+        int[] tagMap = new int[allTags.size()];
+        for (int tag = 0; tag < allTags.size(); tag++) {
+            tagMap[tag] = tagCount[tag] < 3 ? -1 : tagDict.add(allTags.get(tag));
         }
 
         // Now do the Bayes part. First we calculate prior probability
-        priorProb = new HashMap<String, Double>();
-        for (HashMap.Entry<String, Integer> tagEntry : tagCount.entrySet()) {
-            priorProb.put(tagEntry.getKey(), (double) tagEntry.getValue() / (double) lineNumber);
-        }
-
-        // Then we calculate posterior probability
-        posteriorProb = new HashMap<String, HashMap<String, Double>>();
-        for (String tag : tagCount.keySet()) {
-            HashMap<String, Double> oneTagPosterior = new HashMap<String, Double>();
-            int totalWordsNum = 0;
-            for (Integer n : tagWordCount.get(tag).values()) {
-                totalWordsNum += n;
+        int nTags = tagDict.size();
+        int nWords = wordDict.size();
+        double[] priorProb = new double[nTags];
+        for (int tag = 0; tag < allTags.size(); tag++) {
+            if (tagMap[tag] < 0) continue;
+            priorProb[tagMap[tag]] = (double) tagCount[tag] / (double) lineNumber;
+        }
+
+        // Then we keep what the posterior probability needs: the counts seen, and one denominator per tag
+        double[] denominator = new double[nTags];
+        int[] tagStart = new int[nTags + 1];
+        int[] seenWord = new int[1024];
+        int[] seenCount = new int[1024];
+        int nSeen = 0;
+        // The kept words of a tag with their counts, word ID in the high half, to sort by ID
+        long[] pairs = new long[64];
+        for (int tag = 0; tag < allTags.size(); tag++) {
+            if (tagMap[tag] < 0) continue;
+            WordCounts tagWord = tagWordCount.get(tag);
+            denominator[tagMap[tag]] = tagWord.total + alpha * nWords;
+            int nPairs = 0;
+            for (int i = 0; i < tagWord.capacity(); i++) {
+                int word = tagWord.word(i);
+                if (word < 0 || wordMap[word] < 0) continue;
+                pairs = grow(pairs, nPairs + 1);
+                pairs[nPairs++] = (long) wordMap[word] << 32 | tagWord.count(i);
             }
-            for (String word : wordCount.keySet()) {
-                if (tagWordCount.get(tag).get(word) != null) {
-                    double count = (double) tagWordCount.get(tag).get(word);
-                    oneTagPosterior.put(word, (count + alpha) / (totalWordsNum + alpha * wordCount.size()));
-                } else {
-                    oneTagPosterior.put(word, alpha / (totalWordsNum + alpha * wordCount.size()));
-                }
+            Arrays.sort(pairs, 0, nPairs);
+            seenWord = grow(seenWord, nSeen + nPairs);
+            seenCount = grow(seenCount, nSeen + nPairs);
+            for (int i = 0; i < nPairs; i++) {
+                seenWord[nSeen] = (int) (pairs[i] >>> 32);
+                seenCount[nSeen] = (int) pairs[i];
+                nSeen++;
             }
-            posteriorProb.put(tag, oneTagPosterior);
+            tagStart[tagMap[tag] + 1] = nSeen;
         }
+        seenWord = Arrays.copyOf(seenWord, nSeen);
+        seenCount = Arrays.copyOf(seenCount, nSeen);
+        scorer = Scorer.build(priorProb, denominator, nWords, tagStart, seenWord, seenCount, alpha);
     }
 
-    public List<String> test(String description) {
-        ArrayList<String> wordList = null;
-        wordList = cutWords(description);
-        HashMap<String, Double> probability = new HashMap<String, Double>();
-        for (String tag : tagCount.keySet()) {
-            double prob = priorProb.get(tag);
-            for (String word : wordList) {
-                if (!wordCount.containsKey(word)) continue;
-                prob *= posteriorProb.get(tag).get(word);
-            }
-            probability.put(tag, prob);
+    /**
+     * P(word | tag)
+     */
+    public double posteriorProb(int tag, int word) {
+        return Math.exp(scorer.logPosterior(tag, word));
+    }
+
+    /**
+     * Cut the description and map its words to IDs, leaving out the words unknown to the model.
+     * The language, if detected, is told from raw, the description as it was read.
+     */
+    int[] wordIds(CharSequence description, CharSequence raw) {
+        ArrayList<String> wordList = new ArrayList<String>();
+        cutWords(description, raw, wordList);
+        return wordIds(wordList);
+    }
+
+    /**
+     * Same as wordIds(description, raw) for the description of the current line of record.
+     */
+    int[] wordIds(RecordReader record) {
+        ArrayList<String> wordList = new ArrayList<String>();
+        cutWords(record, wordList);
+        return wordIds(wordList);
+    }
+
+    private int[] wordIds(ArrayList<String> wordList) {
+        int[] ids = new int[wordList.size()];
+        int n = 0;
+        for (String word : wordList) {
+            int id = wordDict.id(word);
+            if (id >= 0) ids[n++] = id;
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Get all tags, ordered from the most to the least probable.
+     */
+    public List<String> test(CharSequence description) {
+        int[] words = wordIds(description, description);
+        int nTags = tagDict.size();
+        final double[] probability = new double[nTags];
+        // Scores are log probabilities, so long descriptions do not underflow to 0
+        scorer.score(words, probability);
+        Integer[] order = new Integer[nTags];
+        for (int tag = 0; tag < nTags; tag++) {
+            order[tag] = tag;
         }
-        List<HashMap.Entry<String, Double>> list =
-                new LinkedList<HashMap.Entry<String, Double>>(probability.entrySet());
         // Sort as large to small
-        Collections.sort(list, new Comparator<HashMap.Entry<String, Double>>() {
+        Arrays.sort(order, new Comparator<Integer>() {
             @Override
-            public int compare(HashMap.Entry<String, Double> o1, HashMap.Entry<String, Double> o2) {
-                return -o1.getValue().compareTo(o2.getValue());
+            public int compare(Integer o1, Integer o2) {
+                return -Double.compare(probability[o1], probability[o2]);
             }
         });
-        List<String> tagsSorted = new ArrayList<String>(tagCount.size());
-        for (HashMap.Entry<String, Double> entry : list) {
-            tagsSorted.add(entry.getKey());
+        List<String> tagsSorted = new ArrayList<String>(nTags);
+        for (int tag : order) {
+            tagsSorted.add(tagDict.get(tag));
         }
         return tagsSorted;
     }
+
+    /**
+     * Get the k most probable tags, most probable first. Same as test(description).subList(0, k),
+     * but costs O(T log k) instead of a sort of all T tags.
+     */
+    public List<String> topK(CharSequence description, int k) {
+        return topK(description, description, k);
+    }
+
+    /**
+     * Same as topK(description, k), the language of the description told from raw, the
+     * description as it was read, such as RecordReader.rawDescription().
+     */
+    public List<String> topK(CharSequence description, CharSequence raw, int k) {
+        return topK(wordIds(description, raw), k);
+    }
+
+    /**
+     * Same as topK(description, k) for the description of the current line of record.
+     */
+    public List<String> topK(RecordReader record, int k) {
+        return topK(wordIds(record), k);
+    }
+
+    private List<String> topK(int[] words, int k) {
+        double[] score = new double[tagDict.size()];
+        scorer.score(words, score);
+        int[] top = topK(score, k);
+        List<String> tags = new ArrayList<String>(top.length);
+        for (int tag : top) {
+            tags.add(tagDict.get(tag));
+        }
+        return tags;
+    }
+
+    /**
+     * Select the k highest scores with a min-heap of tag IDs. Equal scores rank the lower ID
+     * first, as the stable sort in test() does.
+     */
+    static int[] topK(double[] score, int k) {
+        k = Math.min(k, score.length);
+        int[] heap = new int[k];
+        int size = 0;
+        for (int tag = 0; tag < score.length; tag++) {
+            if (size < k) {
+                // Sift up
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >> 1;
+                    if (!worse(score, tag, heap[parent])) break;
+                    heap[i] = heap[parent];
+                    i = parent;
+                }
+                heap[i] = tag;
+            } else if (k > 0 && worse(score, heap[0], tag)) {
+                // Replace the root and sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= k) break;
+                    if (child + 1 < k && worse(score, heap[child + 1], heap[child])) child++;
+                    if (!worse(score, heap[child], tag)) break;
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = tag;
+            }
+        }
+        // Pop the worst one to the end each time, leaving the best first
+        for (int end = k - 1; end > 0; end--) {
+            int last = heap[end];
+            heap[end] = heap[0];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= end) break;
+                if (child + 1 < end && worse(score, heap[child + 1], heap[child])) child++;
+                if (!worse(score, heap[child], last)) break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+        }
+        return heap;
+    }
+
+    private static boolean worse(double[] score, int a, int b) {
+        int c = Double.compare(score[a], score[b]);
+        return c < 0 || (c == 0 && a > b);
+    }
 }
@@ -0,0 +1,485 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Reads records of the form id#$#description#$#tag,tag,... one line at a time.
+ *
+ * Does what line.split("#\\$#"), split[1].replaceAll("[^\\x20-\\x7F]", "_") and
+ * split[2].split(",") do, in one scan over a char buffer that is reused for every line.
+ * Fields are CharSequence views of that buffer, valid until the next call to next().
+ *
+ * Read from an InputStream in UTF-8, US-ASCII or ISO-8859-1, the reader splits the bytes
+ * into lines itself and keeps the bytes of the current line, so that the description can
+ * be cut straight from them (see Tokenizer.cutWords(RecordReader, ...)).
+ */
+public class RecordReader implements Closeable {
+
+    // Where lines are read from, the one of the two that is not null
+    private final Reader in;
+    private final InputStream bytesIn;
+    private final char[] buf = new char[8192];
+    private int bufPos = 0;
+    private int bufEnd = 0;
+    private boolean skipLF = false;
+
+    // Read from bytesIn: the current line as bytes, decoded into line, and where its
+    // description is in them
+    private final byte[] byteBuf = new byte[8192];
+    private int byteBufPos = 0;
+    private int byteBufEnd = 0;
+    private byte[] lineBytes = new byte[1024];
+    private int byteLength;
+    private int descriptionStart;
+    private int descriptionEnd;
+    private final CharsetDecoder decoder;
+    private final boolean utf8;
+    private ByteBuffer lineByteBuffer = ByteBuffer.wrap(lineBytes);
+    private CharBuffer lineCharBuffer;
+
+    // The current line, with its description already sanitized
+    private char[] line = new char[1024];
+    private int length;
+
+    private int nFields;
+    private int[] fieldStart = new int[4];
+    private int[] fieldEnd = new int[4];
+    private Field[] fields = new Field[4];
+
+    // The description of the current line as it was read, before sanitize()
+    private char[] raw = new char[256];
+    private int rawLength;
+    private final RawDescription rawDescription = new RawDescription();
+
+    private int nTags;
+    private int[] tagStart = new int[16];
+    private int[] tagEnd = new int[16];
+    private Field[] tags = new Field[16];
+
+    public RecordReader(Reader in) {
+        this.in = in;
+        this.bytesIn = null;
+        this.decoder = null;
+        this.utf8 = false;
+    }
+
+    /**
+     * Read in decoded with the default charset, as new InputStreamReader(in) would. In
+     * UTF-8, US-ASCII or ISO-8859-1 the bytes of each line are kept as well.
+     */
+    public RecordReader(InputStream in) {
+        Charset charset = Charset.defaultCharset();
+        String name = charset.name();
+        if (name.equals("UTF-8") || name.equals("US-ASCII") || name.equals("ISO-8859-1")) {
+            this.in = null;
+            this.bytesIn = in;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.utf8 = name.equals("UTF-8");
+        } else {
+            this.in = new InputStreamReader(in, charset);
+            this.bytesIn = null;
+            this.decoder = null;
+            this.utf8 = false;
+        }
+    }
+
+    /**
+     * Read the next line, ended by \n, \r or \r\n as in BufferedReader.readLine().
+     *
+     * @return false at the end of the input
+     */
+    public boolean next() throws IOException {
+        if (bytesIn != null) return nextBytes();
+        length = 0;
+        boolean any = false;
+        while (true) {
+            if (bufPos == bufEnd) {
+                bufEnd = in.read(buf, 0, buf.length);
+                bufPos = 0;
+                if (bufEnd <= 0) {
+                    bufEnd = 0;
+                    if (!any) return false;
+                    break;
+                }
+            }
+            if (skipLF) {
+                skipLF = false;
+                if (buf[bufPos] == '\n') {
+                    bufPos++;
+                    continue;
+                }
+            }
+            any = true;
+            int start = bufPos;
+            while (bufPos < bufEnd && buf[bufPos] != '\n' && buf[bufPos] != '\r') bufPos++;
+            append(buf, start, bufPos - start);
+            if (bufPos < bufEnd) {
+                skipLF = buf[bufPos] == '\r';
+                bufPos++;
+                break;
+            }
+        }
+        parse();
+        return true;
+    }
+
+    /**
+     * next() over bytes: the same line ends, as '\n' and '\r' are bytes of their own in the
+     * charsets read this way, and each line decoded on its own.
+     */
+    private boolean nextBytes() throws IOException {
+        byteLength = 0;
+        boolean any = false;
+        while (true) {
+            if (byteBufPos == byteBufEnd) {
+                byteBufEnd = bytesIn.read(byteBuf, 0, byteBuf.length);
+                byteBufPos = 0;
+                if (byteBufEnd <= 0) {
+                    byteBufEnd = 0;
+                    if (!any) return false;
+                    break;
+                }
+            }
+            if (skipLF) {
+                skipLF = false;
+                if (byteBuf[byteBufPos] == '\n') {
+                    byteBufPos++;
+                    continue;
+                }
+            }
+            any = true;
+            int start = byteBufPos;
+            while (byteBufPos < byteBufEnd && byteBuf[byteBufPos] != '\n' && byteBuf[byteBufPos] != '\r') byteBufPos++;
+            appendBytes(byteBuf, start, byteBufPos - start);
+            if (byteBufPos < byteBufEnd) {
+                skipLF = byteBuf[byteBufPos] == '\r';
+                byteBufPos++;
+                break;
+            }
+        }
+        decode();
+        // The description is between the first and the second "#$#", as split() finds them
+        int first = findSeparator(0);
+        descriptionStart = descriptionEnd = 0;
+        if (first >= 0) {
+            descriptionStart = first + 3;
+            int second = findSeparator(descriptionStart);
+            descriptionEnd = second < 0 ? byteLength : second;
+        }
+        parse();
+        return true;
+    }
+
+    private void appendBytes(byte[] b, int off, int len) {
+        if (byteLength + len > lineBytes.length) {
+            byte[] bigger = new byte[Math.max(byteLength + len, lineBytes.length * 2)];
+            System.arraycopy(lineBytes, 0, bigger, 0, byteLength);
+            lineBytes = bigger;
+            lineByteBuffer = ByteBuffer.wrap(lineBytes);
+        }
+        System.arraycopy(b, off, lineBytes, byteLength, len);
+        byteLength += len;
+    }
+
+    /**
+     * Decode lineBytes into line; a byte never gives more than one char in these charsets.
+     */
+    private void decode() {
+        if (line.length < byteLength) {
+            line = new char[Math.max(byteLength, line.length * 2)];
+            lineCharBuffer = null;
+        }
+        if (lineCharBuffer == null) lineCharBuffer = CharBuffer.wrap(line);
+        lineByteBuffer.clear();
+        lineByteBuffer.limit(byteLength);
+        lineCharBuffer.clear();
+        decoder.reset();
+        decoder.decode(lineByteBuffer, lineCharBuffer, true);
+        decoder.flush(lineCharBuffer);
+        length = lineCharBuffer.position();
+    }
+
+    private int findSeparator(int from) {
+        for (int i = from; i + 2 < byteLength; i++) {
+            if (lineBytes[i] == '#' && lineBytes[i + 1] == '$' && lineBytes[i + 2] == '#') return i;
+        }
+        return -1;
+    }
+
+    private void append(char[] s, int off, int len) {
+        if (length + len > line.length) {
+            char[] bigger = new char[Math.max(length + len, line.length * 2)];
+            System.arraycopy(line, 0, bigger, 0, length);
+            line = bigger;
+        }
+        System.arraycopy(s, off, line, length, len);
+        length += len;
+    }
+
+    private void parse() {
+        nFields = split(0, length, '#', true, false);
+        rawLength = 0;
+        if (nFields > 1) {
+            rawLength = fieldEnd[1] - fieldStart[1];
+            if (raw.length < rawLength) raw = new char[Math.max(rawLength, raw.length * 2)];
+            System.arraycopy(line, fieldStart[1], raw, 0, rawLength);
+            sanitize(1);
+        }
+        nTags = 0;
+        if (nFields > 2) {
+            nTags = split(fieldStart[2], fieldEnd[2], ',', false, true);
+        }
+    }
+
+    /**
+     * Split line[from, to) at "#$#" or at ch, dropping trailing empty fields as String.split does.
+     */
+    private int split(int from, int to, char ch, boolean record, boolean tag) {
+        int n = 0;
+        int start = from;
+        int i = from;
+        boolean matched = false;
+        while (i < to) {
+            int next;
+            if (record) {
+                next = line[i] == '#' && i + 2 < to && line[i + 1] == '$' && line[i + 2] == '#' ? i + 3 : -1;
+            } else {
+                next = line[i] == ch ? i + 1 : -1;
+            }
+            if (next < 0) {
+                i++;
+                continue;
+            }
+            n = addField(n, start, i, tag);
+            matched = true;
+            start = i = next;
+        }
+        n = addField(n, start, to, tag);
+        if (matched) {
+            int[] starts = tag ? tagStart : fieldStart;
+            int[] ends = tag ? tagEnd : fieldEnd;
+            while (n > 0 && starts[n - 1] == ends[n - 1]) n--;
+        }
+        return n;
+    }
+
+    private int addField(int n, int start, int end, boolean tag) {
+        if (tag) {
+            if (n == tagStart.length) {
+                tagStart = grow(tagStart);
+                tagEnd = grow(tagEnd);
+                Field[] bigger = new Field[n * 2];
+                System.arraycopy(tags, 0, bigger, 0, n);
+                tags = bigger;
+            }
+            tagStart[n] = start;
+            tagEnd[n] = end;
+        } else {
+            if (n == fieldStart.length) {
+                fieldStart = grow(fieldStart);
+                fieldEnd = grow(fieldEnd);
+                Field[] bigger = new Field[n * 2];
+                System.arraycopy(fields, 0, bigger, 0, n);
+                fields = bigger;
+            }
+            fieldStart[n] = start;
+            fieldEnd[n] = end;
+        }
+        return n + 1;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] bigger = new int[a.length * 2];
+        System.arraycopy(a, 0, bigger, 0, a.length);
+        return bigger;
+    }
+
+    /**
+     * Replace every character outside 0x20 to 0x7F in field i by '_', a surrogate pair by a
+     * single '_' as the regex does, and move the following fields left by what was saved.
+     */
+    private void sanitize(int i) {
+        int from = fieldStart[i];
+        int to = fieldEnd[i];
+        int w = from;
+        for (int r = from; r < to; r++) {
+            char c = line[r];
+            if (c < 0x20 || c > 0x7F) {
+                if (Character.isHighSurrogate(c) && r + 1 < to && Character.isLowSurrogate(line[r + 1])) r++;
+                c = '_';
+            }
+            line[w++] = c;
+        }
+        int saved = to - w;
+        if (saved == 0) return;
+        System.arraycopy(line, to, line, w, length - to);
+        length -= saved;
+        fieldEnd[i] -= saved;
+        for (int j = i + 1; j < nFields; j++) {
+            fieldStart[j] -= saved;
+            fieldEnd[j] -= saved;
+        }
+    }
+
+    /**
+     * Whether the line is empty or only white space, as line.trim().isEmpty().
+     */
+    public boolean isBlank() {
+        for (int i = 0; i < length; i++) {
+            if (line[i] > ' ') return false;
+        }
+        return true;
+    }
+
+    public int fieldCount() {
+        return nFields;
+    }
+
+    public CharSequence field(int i) {
+        if (i >= nFields) throw new ArrayIndexOutOfBoundsException(i);
+        if (fields[i] == null) fields[i] = new Field(false, i);
+        return fields[i];
+    }
+
+    public CharSequence id() {
+        return field(0);
+    }
+
+    /**
+     * The description, with characters outside 0x20 to 0x7F replaced by '_'.
+     */
+    public CharSequence description() {
+        return field(1);
+    }
+
+    /**
+     * The description as it was read, characters outside 0x20 to 0x7F included, for what
+     * needs them such as telling its language.
+     */
+    public CharSequence rawDescription() {
+        field(1);
+        return rawDescription;
+    }
+
+    /**
+     * Whether the bytes of the description of the current line are kept, as they are when
+     * reading an InputStream in UTF-8, US-ASCII or ISO-8859-1.
+     */
+    public boolean hasDescriptionBytes() {
+        return bytesIn != null && nFields > 1;
+    }
+
+    /**
+     * The bytes of the current line; the description is descriptionLength() of them from
+     * descriptionOffset(). Only if hasDescriptionBytes().
+     */
+    public byte[] lineBytes() {
+        return lineBytes;
+    }
+
+    public int descriptionOffset() {
+        return descriptionStart;
+    }
+
+    public int descriptionLength() {
+        return descriptionEnd - descriptionStart;
+    }
+
+    /**
+     * Whether the bytes are UTF-8, otherwise each byte is a character.
+     */
+    public boolean isUtf8() {
+        return utf8;
+    }
+
+    public int tagCount() {
+        if (nFields <= 2) throw new ArrayIndexOutOfBoundsException(2);
+        return nTags;
+    }
+
+    public CharSequence tag(int i) {
+        if (i >= tagCount()) throw new ArrayIndexOutOfBoundsException(i);
+        if (tags[i] == null) tags[i] = new Field(true, i);
+        return tags[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        } else {
+            bytesIn.close();
+        }
+    }
+
+    /**
+     * A view of the raw description of the current line.
+     */
+    private class RawDescription implements CharSequence {
+        @Override
+        public int length() {
+            return rawLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return raw[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(raw, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(raw, 0, rawLength);
+        }
+    }
+
+    /**
+     * A view of one field of the current line.
+     */
+    private class Field implements CharSequence {
+        private final boolean tag;
+        private final int i;
+
+        Field(boolean tag, int i) {
+            this.tag = tag;
+            this.i = i;
+        }
+
+        private int start() {
+            return tag ? tagStart[i] : fieldStart[i];
+        }
+
+        @Override
+        public int length() {
+            return (tag ? tagEnd[i] : fieldEnd[i]) - start();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return line[start() + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(line, start() + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(line, start(), length());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.io.*;
+
+/**
+ * Writes result lines as they come and flushes them every flushLines lines, so a run
+ * that stops half way leaves the lines predicted so far, and nothing piles up in memory.
+ */
+public class ResultWriter implements Closeable {
+
+    private final BufferedWriter bw;
+    private final int flushLines;
+    private int pending = 0;
+
+    /**
+     * @param flushLines lines between two flushes, 0 to flush only when closed
+     */
+    public ResultWriter(String fileName, int flushLines) throws IOException {
+        this.bw = new BufferedWriter(new FileWriter(fileName));
+        this.flushLines = flushLines;
+    }
+
+    public void write(String line) throws IOException {
+        bw.write(line);
+        if (flushLines > 0 && ++pending >= flushLines) {
+            bw.flush();
+            pending = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        bw.close();
+    }
+}
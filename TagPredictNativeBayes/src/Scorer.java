@@ -0,0 +1,136 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Naive Bayes scores in log space.
+ *
+ * The score of a tag is log P(tag) plus log P(word | tag) for each word. Every tag has a
+ * baseline, the log probability of a word it has never been seen with, so a word costs only
+ * the tags it was seen with: their scores get the difference to the baseline added, and the
+ * baseline itself is added once per word to all tags.
+ *
+ * The tables are buffers so that they can be views of a mapped model file (see ModelFile)
+ * as well as wrapped arrays of a model just trained.
+ */
+public class Scorer {
+
+    final int nTags;
+    final int nWords;
+
+    // Indexed by tag ID
+    final DoubleBuffer logPrior;
+    final DoubleBuffer logUnseen;
+
+    // For tag t, the words seen with it are seenWord[tagStart[t]] to seenWord[tagStart[t + 1] - 1],
+    // ascending, with log P(word | t) in logProb
+    final IntBuffer tagStart;
+    final IntBuffer seenWord;
+    final DoubleBuffer logProb;
+
+    // For word w, the tags it was seen with are wordTag[wordStart[w]] to wordTag[wordStart[w + 1] - 1],
+    // with log P(w | tag) - logUnseen[tag] in logRatio
+    final IntBuffer wordStart;
+    final IntBuffer wordTag;
+    final DoubleBuffer logRatio;
+
+    Scorer(int nTags, int nWords, DoubleBuffer logPrior, DoubleBuffer logUnseen,
+           IntBuffer tagStart, IntBuffer seenWord, DoubleBuffer logProb,
+           IntBuffer wordStart, IntBuffer wordTag, DoubleBuffer logRatio) {
+        this.nTags = nTags;
+        this.nWords = nWords;
+        this.logPrior = logPrior;
+        this.logUnseen = logUnseen;
+        this.tagStart = tagStart;
+        this.seenWord = seenWord;
+        this.logProb = logProb;
+        this.wordStart = wordStart;
+        this.wordTag = wordTag;
+        this.logRatio = logRatio;
+    }
+
+    /**
+     * Build the tables from training counts.
+     *
+     * @param priorProb   P(tag), indexed by tag ID
+     * @param denominator smoothed number of words of each tag, indexed by tag ID
+     * @param nWords      number of word IDs
+     * @param tagStart    where the words seen with each tag start in seenWord, indexed by tag ID
+     * @param seenWord    IDs of the words seen with each tag, ascending within a tag
+     * @param seenCount   times each word in seenWord is seen with its tag
+     * @param alpha       smoothing added to every count
+     */
+    public static Scorer build(double[] priorProb, double[] denominator, int nWords,
+                               int[] tagStart, int[] seenWord, int[] seenCount, double alpha) {
+        int nTags = priorProb.length;
+        int nSeen = seenWord.length;
+        double[] logPrior = new double[nTags];
+        double[] logUnseen = new double[nTags];
+        double[] logProb = new double[nSeen];
+        for (int tag = 0; tag < nTags; tag++) {
+            logPrior[tag] = Math.log(priorProb[tag]);
+            logUnseen[tag] = Math.log(alpha / denominator[tag]);
+            for (int i = tagStart[tag]; i < tagStart[tag + 1]; i++) {
+                logProb[i] = Math.log((seenCount[i] + alpha) / denominator[tag]);
+            }
+        }
+
+        // Turn the pairs around, from tag -> words into word -> tags
+        int[] wordStart = new int[nWords + 1];
+        for (int word : seenWord) {
+            wordStart[word + 1]++;
+        }
+        for (int word = 0; word < nWords; word++) {
+            wordStart[word + 1] += wordStart[word];
+        }
+        int[] wordTag = new int[nSeen];
+        double[] logRatio = new double[nSeen];
+        int[] next = new int[nWords];
+        System.arraycopy(wordStart, 0, next, 0, nWords);
+        for (int tag = 0; tag < nTags; tag++) {
+            for (int i = tagStart[tag]; i < tagStart[tag + 1]; i++) {
+                int k = next[seenWord[i]]++;
+                wordTag[k] = tag;
+                logRatio[k] = Math.log((seenCount[i] + alpha) / alpha);
+            }
+        }
+
+        return new Scorer(nTags, nWords, DoubleBuffer.wrap(logPrior), DoubleBuffer.wrap(logUnseen),
+                IntBuffer.wrap(tagStart), IntBuffer.wrap(seenWord), DoubleBuffer.wrap(logProb),
+                IntBuffer.wrap(wordStart), IntBuffer.wrap(wordTag), DoubleBuffer.wrap(logRatio));
+    }
+
+    public int nTags() {
+        return nTags;
+    }
+
+    /**
+     * log P(word | tag)
+     */
+    public double logPosterior(int tag, int word) {
+        int i = tagStart.get(tag);
+        int j = tagStart.get(tag + 1) - 1;
+        while (i <= j) {
+            int k = (i + j) >>> 1;
+            int w = seenWord.get(k);
+            if (w < word) i = k + 1;
+            else if (w > word) j = k - 1;
+            else return logProb.get(k);
+        }
+        return logUnseen.get(tag);
+    }
+
+    /**
+     * Write the log score of every tag for the given words into score.
+     */
+    public void score(int[] words, double[] score) {
+        for (int tag = 0; tag < nTags; tag++) {
+            score[tag] = logPrior.get(tag) + words.length * logUnseen.get(tag);
+        }
+        for (int word : words) {
+            int end = wordStart.get(word + 1);
+            for (int k = wordStart.get(word); k < end; k++) {
+                score[wordTag.get(k)] += logRatio.get(k);
+            }
+        }
+    }
+}
@@ -1,38 +1,118 @@
 import java.io.*;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.*;
 
 public class Test {
 
     // How many labels to predict
     static private int topN = 4;
 
+    // Lines being scored ahead of the one written next, per thread
+    static private int linesAhead = 256;
+
+    // Lines written to result.txt between two flushes
+    static private int flushLines = 100;
+
     public static void main(String[] args) throws IOException, ClassNotFoundException {
+        // Threads for scoring, given as the first argument
+        int nThreads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        // and lines between two flushes of result.txt as the second one
+        if (args.length > 1) flushLines = Integer.parseInt(args[1]);
+
         // Open model
         System.out.print("Loading model...");
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream("model"));
-        NaiveBayes model = (NaiveBayes) ois.readObject();
-        ois.close();
+        NaiveBayes model = ModelFile.load("model");
         System.out.println("Done");
 
+        long start = System.nanoTime();
+        int nLines;
+        if (nThreads > 1) {
+            nLines = testParallel(model, nThreads);
+        } else {
+            nLines = testSerial(model);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d lines in %.3f s, %.1f lines/s", nLines, seconds, nLines / seconds));
+    }
+
+    private static int testSerial(NaiveBayes model) throws IOException {
         // read the test data
-        BufferedReader br = new BufferedReader(new FileReader("test.data"));
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] split = line.split("#\\$#");
-            String no = split[0];
-            String description = split[1].replaceAll("[^\\x20-\\x7F]", "_");
-            String[] tags = split[2].split(",");
-            List<String> tagsPredicted = model.test(description).subList(0, topN);
-
-            // Output predicted labels
-            sb.append(no).append("#$#");
-            for (int i = 0; i < topN; i++) {
-                sb.append(tagsPredicted.get(i)).append(i == topN - 1 ? "\r\n" : ",");
+        RecordReader record = new RecordReader(new FileInputStream("test.data"));
+        ResultWriter out = new ResultWriter("result.txt", flushLines);
+        int nLines = 0;
+        try {
+            while (record.next()) {
+                out.write(predict(record.id(), model.topK(record, topN)));
+                nLines++;
             }
+        } finally {
+            record.close();
+            out.close();
+        }
+        return nLines;
+    }
+
+    /**
+     * Score the lines on a pool of nThreads threads sharing the model, which is read-only.
+     * The results are written in input order: the futures wait in a queue of bounded length,
+     * and the oldest one is written before a line is added to a full queue.
+     */
+    private static int testParallel(final NaiveBayes model, int nThreads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<Future<String>> queue = new LinkedList<Future<String>>();
+        int capacity = linesAhead * nThreads;
+        RecordReader record = new RecordReader(new FileInputStream("test.data"));
+        ResultWriter out = new ResultWriter("result.txt", flushLines);
+        int nLines = 0;
+        try {
+            while (record.next()) {
+                if (queue.size() == capacity) {
+                    out.write(get(queue.removeFirst()));
+                }
+                // The fields are views of the reader's buffer, so the task gets copies
+                final String no = record.id().toString();
+                final String description = record.description().toString();
+                final String raw = record.rawDescription().toString();
+                queue.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return predict(no, model.topK(description, raw, topN));
+                    }
+                }));
+                nLines++;
+            }
+            while (!queue.isEmpty()) {
+                out.write(get(queue.removeFirst()));
+            }
+        } finally {
+            pool.shutdownNow();
+            record.close();
+            out.close();
+        }
+        return nLines;
+    }
+
+    private static String get(Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * The labels predicted for one record of test data, formatted as a line of result.txt.
+     */
+    private static String predict(CharSequence no, List<String> tagsPredicted) {
+        // Output predicted labels
+        StringBuilder sb = new StringBuilder();
+        sb.append(no).append("#$#");
+        for (int i = 0; i < topN; i++) {
+            sb.append(tagsPredicted.get(i)).append(i == topN - 1 ? "\r\n" : ",");
         }
-        BufferedWriter bw = new BufferedWriter(new FileWriter("result.txt"));
-        bw.write(sb.toString());
-        bw.close();
+        return sb.toString();
     }
 }
@@ -1,19 +1,20 @@
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 
 public class Train {
 
     public static void main(String[] args) throws IOException, ClassNotFoundException {
+        // Threads for cutting and counting words, given as the first argument
+        int nThreads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+
         NaiveBayes model = new NaiveBayes();
         System.out.print("Training...");
-        model.train("train.data");
+        model.train("train.data", nThreads);
         System.out.println("Done");
+        System.out.println("Stem cache: " + Tokenizer.stemCache());
+        System.out.print(Tokenizer.languageStats());
 
         // Save model
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("model"));
-        oos.writeObject(model);
-        oos.close();
+        ModelFile.save(model, "model");
 
         System.out.println("Model saved");
     }
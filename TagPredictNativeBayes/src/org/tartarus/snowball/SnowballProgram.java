@@ -1,11 +1,10 @@
 
 package org.tartarus.snowball;
-import java.lang.reflect.InvocationTargetException;
 
 public class SnowballProgram {
     protected SnowballProgram()
     {
-	current = new StringBuffer();
+	current = new char[16];
 	setCurrent("");
     }
 
@@ -14,9 +13,28 @@ public class SnowballProgram {
      */
     public void setCurrent(String value)
     {
-	current.replace(0, current.length(), value);
+	length = 0;
+	ensureCapacity(value.length());
+	value.getChars(0, value.length(), current, 0);
+	setLength(value.length());
+    }
+
+    /**
+     * Set the current string to buf[off, off + len).
+     */
+    public void setCurrent(char[] buf, int off, int len)
+    {
+	length = 0;
+	ensureCapacity(len);
+	System.arraycopy(buf, off, current, 0, len);
+	setLength(len);
+    }
+
+    private void setLength(int len)
+    {
+	length = len;
 	cursor = 0;
-	limit = current.length();
+	limit = length;
 	limit_backward = 0;
 	bra = cursor;
 	ket = limit;
@@ -27,19 +45,36 @@ public class SnowballProgram {
      */
     public String getCurrent()
     {
-        String result = current.toString();
-        // Make a new StringBuffer.  If we reuse the old one, and a user of
-        // the library keeps a reference to the buffer returned (for example,
-        // by converting it to a String in a way which doesn't force a copy),
-        // the buffer size will not decrease, and we will risk wasting a large
-        // amount of memory.
-        // Thanks to Wolfram Esser for spotting this problem.
-        current = new StringBuffer();
-        return result;
+	return new String(current, 0, length);
+    }
+
+    /**
+     * Get the buffer holding the current string, which is
+     * getCurrentBufferLength() chars long. The buffer is reused by the
+     * next word.
+     */
+    public char[] getCurrentBuffer()
+    {
+	return current;
     }
 
-    // current string
-    protected StringBuffer current;
+    public int getCurrentBufferLength()
+    {
+	return length;
+    }
+
+    private void ensureCapacity(int size)
+    {
+	if (size > current.length) {
+	    char[] bigger = new char[Math.max(size, current.length * 2)];
+	    System.arraycopy(current, 0, bigger, 0, length);
+	    current = bigger;
+	}
+    }
+
+    // the current string is current[0, length)
+    protected char[] current;
+    protected int length;
 
     protected int cursor;
     protected int limit;
@@ -47,9 +82,20 @@ public class SnowballProgram {
     protected int bra;
     protected int ket;
 
+    /**
+     * Get the routine that an Among entry names. Stemmers whose Among
+     * tables name routines override this with a switch over the names.
+     */
+    protected Among.Routine among_routine(String methodname)
+    {
+	throw new IllegalArgumentException(getClass().getName() +
+					   " has no routine " + methodname);
+    }
+
     protected void copy_from(SnowballProgram other)
     {
 	current          = other.current;
+	length           = other.length;
 	cursor           = other.cursor;
 	limit            = other.limit;
 	limit_backward   = other.limit_backward;
@@ -60,7 +106,7 @@ public class SnowballProgram {
     protected boolean in_grouping(char [] s, int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) return false;
 	ch -= min;
 	if ((s[ch >> 3] & (0X1 << (ch & 0X7))) == 0) return false;
@@ -71,7 +117,7 @@ public class SnowballProgram {
     protected boolean in_grouping_b(char [] s, int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) return false;
 	ch -= min;
 	if ((s[ch >> 3] & (0X1 << (ch & 0X7))) == 0) return false;
@@ -82,7 +128,7 @@ public class SnowballProgram {
     protected boolean out_grouping(char [] s, int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) {
 	    cursor++;
 	    return true;
@@ -98,7 +144,7 @@ public class SnowballProgram {
     protected boolean out_grouping_b(char [] s, int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) {
 	    cursor--;
 	    return true;
@@ -114,7 +160,7 @@ public class SnowballProgram {
     protected boolean in_range(int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (ch > max || ch < min) return false;
 	cursor++;
 	return true;
@@ -123,7 +169,7 @@ public class SnowballProgram {
     protected boolean in_range_b(int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if (ch > max || ch < min) return false;
 	cursor--;
 	return true;
@@ -132,7 +178,7 @@ public class SnowballProgram {
     protected boolean out_range(int min, int max)
     {
 	if (cursor >= limit) return false;
-	char ch = current.charAt(cursor);
+	char ch = current[cursor];
 	if (!(ch > max || ch < min)) return false;
 	cursor++;
 	return true;
@@ -141,7 +187,7 @@ public class SnowballProgram {
     protected boolean out_range_b(int min, int max)
     {
 	if (cursor <= limit_backward) return false;
-	char ch = current.charAt(cursor - 1);
+	char ch = current[cursor - 1];
 	if(!(ch > max || ch < min)) return false;
 	cursor--;
 	return true;
@@ -152,7 +198,7 @@ public class SnowballProgram {
 	if (limit - cursor < s_size) return false;
 	int i;
 	for (i = 0; i != s_size; i++) {
-	    if (current.charAt(cursor + i) != s.charAt(i)) return false;
+	    if (current[cursor + i] != s.charAt(i)) return false;
 	}
 	cursor += s_size;
 	return true;
@@ -163,7 +209,7 @@ public class SnowballProgram {
 	if (cursor - limit_backward < s_size) return false;
 	int i;
 	for (i = 0; i != s_size; i++) {
-	    if (current.charAt(cursor - s_size + i) != s.charAt(i)) return false;
+	    if (current[cursor - s_size + i] != s.charAt(i)) return false;
 	}
 	cursor -= s_size;
 	return true;
@@ -180,152 +226,68 @@ public class SnowballProgram {
 
     protected int find_among(Among v[], int v_size)
     {
-	int i = 0;
-	int j = v_size;
-
 	int c = cursor;
-	int l = limit;
-
-	int common_i = 0;
-	int common_j = 0;
-
-	boolean first_key_inspected = false;
-
-	while(true) {
-	    int k = i + ((j - i) >> 1);
-	    int diff = 0;
-	    int common = common_i < common_j ? common_i : common_j; // smaller
-	    Among w = v[k];
-	    int i2;
-	    for (i2 = common; i2 < w.s_size; i2++) {
-		if (c + common == l) {
-		    diff = -1;
-		    break;
-		}
-		diff = current.charAt(c + common) - w.s[i2];
-		if (diff != 0) break;
-		common++;
-	    }
-	    if (diff < 0) {
-		j = k;
-		common_j = common;
-	    } else {
-		i = k;
-		common_i = common;
-	    }
-	    if (j - i <= 1) {
-		if (i > 0) break; // v->s has been inspected
-		if (j == i) break; // only one item in v
-
-		// - but now we need to go round once more to get
-		// v->s inspected. This looks messy, but is actually
-		// the optimal approach.
-
-		if (first_key_inspected) break;
-		first_key_inspected = true;
-	    }
-	}
+	int i = trie(v, v_size, false).longest(current, c, limit);
+	if (i < 0) return 0;
+	// the shorter strings of the table the word starts with, longest
+	// first, are down the chain of substring_i
 	while(true) {
 	    Among w = v[i];
-	    if (common_i >= w.s_size) {
-		cursor = c + w.s_size;
-		if (w.method == null) return w.result;
-		boolean res;
-		try {
-		    Object resobj = w.method.invoke(w.methodobject,
-						    new Object[0]);
-		    res = resobj.toString().equals("true");
-		} catch (InvocationTargetException e) {
-		    res = false;
-		    // FIXME - debug message
-		} catch (IllegalAccessException e) {
-		    res = false;
-		    // FIXME - debug message
-		}
-		cursor = c + w.s_size;
-		if (res) return w.result;
-	    }
+	    cursor = c + w.s_size;
+	    if (w.routine == null) return w.result;
+	    boolean res = w.routine.call();
+	    cursor = c + w.s_size;
+	    if (res) return w.result;
 	    i = w.substring_i;
 	    if (i < 0) return 0;
 	}
     }
 
-    // find_among_b is for backwards processing. Same comments apply
+    // find_among_b is for when doing reverse stemming
     protected int find_among_b(Among v[], int v_size)
     {
-	int i = 0;
-	int j = v_size;
-
 	int c = cursor;
-	int lb = limit_backward;
-
-	int common_i = 0;
-	int common_j = 0;
-
-	boolean first_key_inspected = false;
-
-	while(true) {
-	    int k = i + ((j - i) >> 1);
-	    int diff = 0;
-	    int common = common_i < common_j ? common_i : common_j;
-	    Among w = v[k];
-	    int i2;
-	    for (i2 = w.s_size - 1 - common; i2 >= 0; i2--) {
-		if (c - common == lb) {
-		    diff = -1;
-		    break;
-		}
-		diff = current.charAt(c - 1 - common) - w.s[i2];
-		if (diff != 0) break;
-		common++;
-	    }
-	    if (diff < 0) {
-		j = k;
-		common_j = common;
-	    } else {
-		i = k;
-		common_i = common;
-	    }
-	    if (j - i <= 1) {
-		if (i > 0) break;
-		if (j == i) break;
-		if (first_key_inspected) break;
-		first_key_inspected = true;
-	    }
-	}
+	int i = trie(v, v_size, true).longest_b(current, c, limit_backward);
+	if (i < 0) return 0;
 	while(true) {
 	    Among w = v[i];
-	    if (common_i >= w.s_size) {
-		cursor = c - w.s_size;
-		if (w.method == null) return w.result;
-
-		boolean res;
-		try {
-		    Object resobj = w.method.invoke(w.methodobject,
-						    new Object[0]);
-		    res = resobj.toString().equals("true");
-		} catch (InvocationTargetException e) {
-		    res = false;
-		    // FIXME - debug message
-		} catch (IllegalAccessException e) {
-		    res = false;
-		    // FIXME - debug message
-		}
-		cursor = c - w.s_size;
-		if (res) return w.result;
-	    }
+	    cursor = c - w.s_size;
+	    if (w.routine == null) return w.result;
+
+	    boolean res = w.routine.call();
+	    cursor = c - w.s_size;
+	    if (res) return w.result;
 	    i = w.substring_i;
 	    if (i < 0) return 0;
 	}
     }
 
+    /**
+     * The trie of a table, built the first time the table is searched and
+     * kept in its first entry. A table is only searched in one direction.
+     */
+    private static AmongTrie trie(Among v[], int v_size, boolean backward)
+    {
+	AmongTrie trie = v[0].trie;
+	if (trie == null) {
+	    // two threads may both build it, which is harmless: the trie
+	    // is immutable, and its final fields make it safe to publish
+	    trie = new AmongTrie(v, v_size, backward);
+	    v[0].trie = trie;
+	}
+	return trie;
+    }
+
     /* to replace chars between c_bra and c_ket in current by the
      * chars in s.
      */
     protected int replace_s(int c_bra, int c_ket, String s)
     {
 	int adjustment = s.length() - (c_ket - c_bra);
-	current.replace(c_bra, c_ket, s);
+	ensureCapacity(length + adjustment);
+	System.arraycopy(current, c_ket, current, c_ket + adjustment, length - c_ket);
+	s.getChars(0, s.length(), current, c_bra);
+	length += adjustment;
 	limit += adjustment;
 	if (cursor >= c_ket) cursor += adjustment;
 	else if (cursor > c_bra) cursor = c_bra;
@@ -337,7 +299,7 @@ public class SnowballProgram {
 	if (bra < 0 ||
 	    bra > ket ||
 	    ket > limit ||
-	    limit > current.length())   // this line could be removed
+	    limit > length)   // this line could be removed
 	{
 	    System.err.println("faulty slice operation");
 	// FIXME: report error somehow.
@@ -381,8 +343,8 @@ public class SnowballProgram {
     protected StringBuffer slice_to(StringBuffer s)
     {
 	slice_check();
-	int len = ket - bra;
-	s.replace(0, s.length(), current.substring(bra, ket));
+	s.setLength(0);
+	s.append(current, bra, ket - bra);
 	return s;
     }
 
@@ -390,20 +352,22 @@ public class SnowballProgram {
     protected StringBuilder slice_to(StringBuilder s)
     {
 	slice_check();
-	int len = ket - bra;
-	s.replace(0, s.length(), current.substring(bra, ket));
+	s.setLength(0);
+	s.append(current, bra, ket - bra);
 	return s;
     }
 
     protected StringBuffer assign_to(StringBuffer s)
     {
-	s.replace(0, s.length(), current.substring(0, limit));
+	s.setLength(0);
+	s.append(current, 0, limit);
 	return s;
     }
 
     protected StringBuilder assign_to(StringBuilder s)
     {
-	s.replace(0, s.length(), current.substring(0, limit));
+	s.setLength(0);
+	s.append(current, 0, limit);
 	return s;
     }
 
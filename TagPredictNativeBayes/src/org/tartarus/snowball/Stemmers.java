@@ -0,0 +1,89 @@
+
+package org.tartarus.snowball;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.tartarus.snowball.ext.*;
+
+/**
+ * Gives out stemmers by language name, the names TestApp takes: "english"
+ * for englishStemmer and so on. A SnowballStemmer keeps the word it
+ * works on in its fields, so it must not be shared between threads; get()
+ * keeps one instance per thread and language. Stemmers are made with
+ * new, not looked up by class name.
+ */
+public class Stemmers {
+
+    private static final String[] LANGUAGES = {
+	"danish", "dutch", "english", "finnish", "french", "german",
+	"hungarian", "italian", "norwegian", "porter", "portuguese",
+	"romanian", "russian", "spanish", "swedish", "turkish"
+    };
+
+    private static final ThreadLocal<Map<String, SnowballStemmer>> local =
+	new ThreadLocal<Map<String, SnowballStemmer>>() {
+	    @Override
+	    protected Map<String, SnowballStemmer> initialValue() {
+		return new HashMap<String, SnowballStemmer>();
+	    }
+	};
+
+    private Stemmers()
+    {
+    }
+
+    /**
+     * The names of the languages there are stemmers for.
+     */
+    public static String[] languages()
+    {
+	return LANGUAGES.clone();
+    }
+
+    /**
+     * Get the stemmer of the current thread for language.
+     *
+     * @throws IllegalArgumentException if there is no stemmer for language
+     */
+    public static SnowballStemmer get(String language)
+    {
+	Map<String, SnowballStemmer> stemmers = local.get();
+	SnowballStemmer stemmer = stemmers.get(language);
+	if (stemmer == null) {
+	    stemmer = create(language);
+	    stemmers.put(language, stemmer);
+	}
+	return stemmer;
+    }
+
+    /**
+     * Make a new stemmer for language, for a caller that keeps it to
+     * one thread itself.
+     *
+     * @throws IllegalArgumentException if there is no stemmer for language
+     */
+    public static SnowballStemmer create(String language)
+    {
+	switch (language) {
+	    case "danish":     return new danishStemmer();
+	    case "dutch":      return new dutchStemmer();
+	    case "english":    return new englishStemmer();
+	    case "finnish":    return new finnishStemmer();
+	    case "french":     return new frenchStemmer();
+	    case "german":     return new germanStemmer();
+	    case "hungarian":  return new hungarianStemmer();
+	    case "italian":    return new italianStemmer();
+	    case "norwegian":  return new norwegianStemmer();
+	    case "porter":     return new porterStemmer();
+	    case "portuguese": return new portugueseStemmer();
+	    case "romanian":   return new romanianStemmer();
+	    case "russian":    return new russianStemmer();
+	    case "spanish":    return new spanishStemmer();
+	    case "swedish":    return new swedishStemmer();
+	    case "turkish":    return new turkishStemmer();
+	    default:
+		throw new IllegalArgumentException("No stemmer for " + language);
+	}
+    }
+}
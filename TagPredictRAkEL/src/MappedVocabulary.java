@@ -0,0 +1,206 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A read-only vocabulary of words with dense IDs, kept in a ByteBuffer, usually a view of
+ * a mapped file, so that it lives off the heap and processes mapping the same file share it.
+ * A word is found by a binary search over its UTF-8 bytes, nothing is built when loading.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   int n
+ *   int offset[n + 1]   the UTF-8 bytes of word i are bytes[offset[i], offset[i + 1])
+ *   int sorted[n]       the IDs in the order of the bytes of their words
+ *   byte bytes[]
+ * </pre>
+ */
+public class MappedVocabulary implements Vocabulary {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int n;
+    private final IntBuffer offset;
+    private final IntBuffer sorted;
+    private final ByteBuffer bytes;
+
+    // The UTF-8 bytes of the word being looked up, one buffer per thread
+    private static final ThreadLocal<byte[][]> keyBuffer = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][]{new byte[64]};
+        }
+    };
+
+    /**
+     * View the vocabulary that starts at the position of buf.
+     */
+    public MappedVocabulary(ByteBuffer buf) throws IOException {
+        ByteBuffer b = buf.slice();
+        if (b.limit() < 4) throw new IOException("Vocabulary is truncated");
+        n = b.getInt(0);
+        int bytesStart = 4 * (2 * n + 2);
+        if (n < 0 || b.limit() < bytesStart) throw new IOException("Vocabulary is truncated");
+        offset = section(b, 4, 4 * (n + 1)).asIntBuffer();
+        sorted = section(b, 4 * (n + 2), 4 * n).asIntBuffer();
+        int size = offset.get(n);
+        if (b.limit() < bytesStart + size) throw new IOException("Vocabulary is truncated");
+        bytes = section(b, bytesStart, size);
+    }
+
+    private static ByteBuffer section(ByteBuffer buf, int pos, int size) {
+        ByteBuffer b = buf.duplicate();
+        b.position(pos);
+        b.limit(pos + size);
+        return b.slice();
+    }
+
+    /**
+     * Bytes taken by the vocabulary, from the position the constructor was given.
+     */
+    public int byteSize() {
+        return 4 * (2 * n + 2) + offset.get(n);
+    }
+
+    /**
+     * Write words, word i getting ID i, in the layout the constructor reads.
+     *
+     * @return the number of bytes written
+     */
+    public static int write(DataOutputStream out, List<String> words) throws IOException {
+        int n = words.size();
+        final byte[][] keys = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            keys[i] = words.get(i).getBytes(UTF_8);
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareBytes(keys[a], keys[b]);
+            }
+        });
+
+        out.writeInt(n);
+        int offset = 0;
+        for (byte[] key : keys) {
+            out.writeInt(offset);
+            offset += key.length;
+        }
+        out.writeInt(offset);
+        for (int id : order) {
+            out.writeInt(id);
+        }
+        for (byte[] key : keys) {
+            out.write(key);
+        }
+        return 4 * (2 * n + 2) + offset;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (d != 0) return d;
+        }
+        return a.length - b.length;
+    }
+
+    @Override
+    public int id(String word) {
+        return id((CharSequence) word);
+    }
+
+    /**
+     * Get the ID of word, or -1 if it is not in the vocabulary.
+     */
+    public int id(CharSequence word) {
+        byte[][] holder = keyBuffer.get();
+        int len = encode(word, holder);
+        byte[] key = holder[0];
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = sorted.get(mid);
+            int c = compare(id, key, len);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return id;
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the bytes of word id with key[0, len), as unsigned bytes.
+     */
+    private int compare(int id, byte[] key, int len) {
+        int from = offset.get(id);
+        int size = offset.get(id + 1) - from;
+        int common = Math.min(size, len);
+        for (int i = 0; i < common; i++) {
+            int d = (bytes.get(from + i) & 0xFF) - (key[i] & 0xFF);
+            if (d != 0) return d;
+        }
+        return size - len;
+    }
+
+    /**
+     * Encode s as UTF-8 into holder[0], growing it if needed, as String.getBytes does,
+     * an unpaired surrogate becoming '?'.
+     *
+     * @return the number of bytes
+     */
+    private static int encode(CharSequence s, byte[][] holder) {
+        byte[] b = holder[0];
+        if (b.length < 4 * s.length()) {
+            b = holder[0] = new byte[Math.max(4 * s.length(), 2 * b.length)];
+        }
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[len++] = (byte) c;
+            } else if (c < 0x800) {
+                b[len++] = (byte) (0xC0 | c >> 6);
+                b[len++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[len++] = (byte) (0xF0 | cp >> 18);
+                    b[len++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                    b[len++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                    b[len++] = (byte) (0x80 | cp & 0x3F);
+                } else {
+                    b[len++] = '?';
+                }
+            } else {
+                b[len++] = (byte) (0xE0 | c >> 12);
+                b[len++] = (byte) (0x80 | c >> 6 & 0x3F);
+                b[len++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return len;
+    }
+
+    @Override
+    public String get(int id) {
+        int from = offset.get(id);
+        byte[] b = new byte[offset.get(id + 1) - from];
+        ByteBuffer view = bytes.duplicate();
+        view.position(from);
+        view.get(b);
+        return new String(b, UTF_8);
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+}
@@ -1,20 +1,14 @@
 import mulan.classifier.MultiLabelOutput;
 import mulan.classifier.meta.RAkEL;
 import mulan.data.MultiLabelInstances;
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.tartarus.snowball.SnowballStemmer;
-import org.tartarus.snowball.ext.englishStemmer;
 import weka.core.Instance;
 import weka.core.SerializationHelper;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
 public class Test {
 
@@ -23,19 +17,27 @@ public class Test {
     static String arffFile = "test.arff";
     static String xmlFilename = "tag_predict.xml";
 
-    static HashMap<Integer, HashMap<String, Float>> tfMap;
-    static HashMap<String, Float> idfMap;
-    static HashMap<Integer, Set<String>> tagsMap;
-    static ArrayList<String> wordList;
-    static ArrayList<String> tagList;
+    static String tfidfFile = "TFIDF";
+    static String vocabularyFile = "TFIDF.vocab";
+
+    // Words with their IDF, and tags, learned by Translate
+    static TfidfFile vocabulary;
+
+    // Write sparse ARFF rows, {index value, ...}, holding only the non-zero values
+    static boolean sparse = false;
+    // Writes the feature values and indices without String.format
+    static FloatFormat floatFormat = new FloatFormat();
 
     public static void main(String[] args) throws Exception {
+        // "-sparse" to write test.arff as sparse ARFF
+        sparse = args.length > 0 && args[0].equals("-sparse");
 
-        // Translate into ARFF file
-        ObjectInputStream ois = new ObjectInputStream(new FileInputStream("TFIDF"));
-        idfMap = (HashMap<String, Float>) ois.readObject();
-        wordList = (ArrayList<String>) ois.readObject();
-        tagList = (ArrayList<String>) ois.readObject();
+        // Translate into ARFF file, with the vocabulary built again from TFIDF if it is
+        // missing or was written with another TFIDF, as when one is copied in on its own
+        if (new File(tfidfFile).exists() && !TfidfFile.isFor(vocabularyFile, tfidfFile)) {
+            convert(tfidfFile, vocabularyFile);
+        }
+        vocabulary = TfidfFile.load(vocabularyFile);
         translate(inputFile, arffFile);
 
         // Load model
@@ -62,52 +64,60 @@ public class Test {
         bw.close();
     }
 
-    static SnowballStemmer stemmer = new englishStemmer();
-
-    static ArrayList<String> cutWords(String text) throws IOException {
-        ArrayList<String> words = new ArrayList<String>();
-        // using ApacheLucene StandardAnalyzer to cut words
-        Reader reader = new StringReader(text);
-        Analyzer analyzer = new StandardAnalyzer();
-        TokenStream tokenStream = analyzer.tokenStream("", reader);
-        CharTermAttribute term = tokenStream.getAttribute(CharTermAttribute.class);
-        tokenStream.reset();
-        while (tokenStream.incrementToken()) {
-            String word = term.toString();
-            // if it is number, just skip
-            if (word.matches("^\\d+(\\.\\d+)?$")) continue;
-            // Stemming
-            stemmer.setCurrent(word);
-            if (stemmer.stem()) {
-                words.add(stemmer.getCurrent());
-            } else {
-                words.add(word);
-            }
+    /**
+     * Write the vocabulary file from a TFIDF file of an older Translate, which only wrote that.
+     */
+    @SuppressWarnings("unchecked")
+    static void convert(String tfidfFile, String vocabularyFile) throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(tfidfFile));
+        try {
+            HashMap<String, Float> idfMap = (HashMap<String, Float>) ois.readObject();
+            ArrayList<String> wordList = (ArrayList<String>) ois.readObject();
+            ArrayList<String> tagList = (ArrayList<String>) ois.readObject();
+            TfidfFile.save(vocabularyFile, tfidfFile, wordList, idfMap, tagList);
+        } finally {
+            ois.close();
         }
-        analyzer.close();
-        return words;
     }
 
+    /**
+     * Write the ARFF file of inputFile. The attributes are known before reading, so each
+     * row is written as soon as its line is cut.
+     */
     public static void translate(String inputFile, String outputFile) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(inputFile));
+        RecordReader record = new RecordReader(new FileInputStream(inputFile));
         BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile));
+        MappedVocabulary wordList = vocabulary.words;
+        MappedVocabulary tagList = vocabulary.tags;
 
         // ARFF Headers
         bw.write("@relation tagpred\n\n");
 
-        String line;
-        int lineNumber = 0;
-        tfMap = new HashMap<Integer, HashMap<String, Float>>();
-        tagsMap = new HashMap<Integer, Set<String>>();
-        while ((line = br.readLine()) != null) {
-            lineNumber++;
-            String[] split = line.split("#\\$#");
-            String description = split[1].replaceAll("[^\\x20-\\x7F]", "_");
+        // ARFF Attributions declaration
+        for (int i = 0; i < wordList.size(); i++) {
+            bw.write("@attribute tfidf_");
+            bw.write(wordList.get(i));
+            bw.write(" numeric\n");
+        }
+        for (int i = 0; i < tagList.size(); i++) {
+            bw.write("@attribute ");
+            bw.write(tagList.get(i).replace(" ", "_"));
+            bw.write(" {0,1}\n");
+        }
+        bw.write("\n@data\n");
 
-            ArrayList<String> wordList = cutWords(description);
+        Tokenizer tokenizer = Tokenizer.get();
+        ArrayList<String> words = new ArrayList<String>();
+        // TF of the words of the line, by word ID, and the IDs set
+        float[] termFrequency = new float[wordList.size()];
+        boolean[] present = new boolean[wordList.size()];
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        while (record.next()) {
+            words.clear();
+            tokenizer.cutWords(record, words);
 
             HashMap<String, Integer> statistics = new HashMap<String, Integer>();
-            for (String word : wordList) {
+            for (String word : words) {
                 // Count in only this file (for TF)
                 if (statistics.get(word) == null) {
                     statistics.put(word, 1);
@@ -115,41 +125,69 @@ public class Test {
                     statistics.replace(word, statistics.get(word) + 1);
                 }
             }
-            // Calculate & save TF value
-            HashMap<String, Float> termFrequency = new HashMap<String, Float>();
+            // Calculate TF value
             for (Map.Entry<String, Integer> entry : statistics.entrySet()) {
-                termFrequency.put(entry.getKey(), (float) entry.getValue() / wordList.size());
+                int id = wordList.id(entry.getKey());
+                if (id < 0) continue;
+                termFrequency[id] = (float) entry.getValue() / words.size();
+                present[id] = true;
+                ids.add(id);
+            }
+
+            if (sparse) {
+                writeSparse(bw, ids, termFrequency, tagList.size());
+            } else {
+                writeDense(bw, present, termFrequency, tagList.size());
             }
-            tfMap.put(lineNumber, termFrequency);
+
+            for (int id : ids) present[id] = false;
+            ids.clear();
         }
-        // ARFF Attributions declaration
-        for (int i = 0; i < wordList.size(); i++) {
-            bw.write(String.format("@attribute tfidf_%s numeric\n", wordList.get(i)));
+        bw.close();
+        record.close();
+    }
+
+    private static void writeDense(BufferedWriter bw, boolean[] present, float[] termFrequency, int nTags)
+            throws IOException {
+        // Write IF-IDF features
+        for (int j = 0; j < present.length; j++) {
+            if (j > 0) bw.write(",");
+            if (present[j]) {
+                floatFormat.write(bw, termFrequency[j] * vocabulary.idf(j));
+            } else {
+                bw.write("0");
+            }
         }
-        for (int i = 0; i < tagList.size(); i++) {
-            bw.write(String.format("@attribute %s {0,1}\n", tagList.get(i).replace(" ", "_")));
+        // Write labels by "?"
+        for (int j = 0; j < nTags; j++) {
+            bw.write(",?");
         }
-        bw.write("\n@data\n");
+        bw.write("\n");
+    }
 
-        // Calculate & save IF-IDF value to file
-        for (int i = 1; i <= lineNumber; i++) {
-            // Write IF-IDF features
-            for (int j = 0; j < wordList.size(); j++) {
-                String word = wordList.get(j);
-                if (j > 0) bw.write(",");
-                if (tfMap.get(i).containsKey(word)) {
-                    bw.write(String.format("%f", tfMap.get(i).get(word) * idfMap.get(word)));
-                } else {
-                    bw.write("0");
-                }
-            }
-            // Write labels by "?"
-            for (int j = 0; j < tagList.size(); j++) {
-                bw.write(",?");
-            }
-            bw.write("\n");
+    /**
+     * Write one row in sparse ARFF: the features of the words of the line by increasing
+     * attribute index, and then every label as "?", as a value left out would be 0.
+     */
+    private static void writeSparse(BufferedWriter bw, ArrayList<Integer> ids, float[] termFrequency, int nTags)
+            throws IOException {
+        Collections.sort(ids);
+        int nWords = termFrequency.length;
+        bw.write("{");
+        boolean first = true;
+        for (int id : ids) {
+            if (!first) bw.write(",");
+            floatFormat.write(bw, id);
+            bw.write(" ");
+            floatFormat.write(bw, termFrequency[id] * vocabulary.idf(id));
+            first = false;
         }
-        bw.close();
-        br.close();
+        for (int j = 0; j < nTags; j++) {
+            if (!first) bw.write(",");
+            floatFormat.write(bw, nWords + j);
+            bw.write(" ?");
+            first = false;
+        }
+        bw.write("}\n");
     }
 }
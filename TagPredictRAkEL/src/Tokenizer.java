@@ -0,0 +1,497 @@
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.tartarus.snowball.LanguageDetector;
+import org.tartarus.snowball.SnowballStemmer;
+import org.tartarus.snowball.StemCache;
+import org.tartarus.snowball.Stemmers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cuts a description into stemmed words: StandardAnalyzer tokens, numbers dropped,
+ * the rest stemmed by englishStemmer. One instance is kept per thread so that the
+ * analyzer, its TokenStream and the stemmer are reused from one call to the next.
+ * Stems are looked up in a cache shared by all threads before anything is stemmed.
+ *
+ * With -Dtokenizer.languages=german,french,... (or =all) the language of each text is
+ * detected first, and its words go to the stemmer and stem cache of that language;
+ * texts too short to tell stay English. The language is told from the description as it
+ * was read (see cutWords(RecordReader, ...)), as sanitizing leaves no letter outside ASCII.
+ *
+ * With -Dtokenizer.stemCache=file, the stem cache is loaded from file when the class is
+ * initialised, if it exists, and saved to it when the program exits, so a run starts with
+ * the stems of the last one; the cache of another detected language goes to file.language.
+ *
+ * With -Dtokenizer.ascii=true, text with nothing outside 0x20 to 0x7F, as RecordReader
+ * leaves descriptions, is cut without Lucene by the rules StandardAnalyzer applies to
+ * ASCII; TokenizerCheck checks the two give the same words on the data files. A record
+ * read from an InputStream is cut straight from the bytes of its line then.
+ */
+public class Tokenizer {
+
+    // Most words whose stems are cached, per language
+    static private int stemCacheSize = 1 << 16;
+
+    // Languages to detect, comma separated or "all"; English only if not set
+    static private String languages = System.getProperty("tokenizer.languages");
+
+    // Cut sanitized text without Lucene, see cutWords(byte[], ...)
+    static private boolean ascii = Boolean.getBoolean("tokenizer.ascii");
+
+    // File the stem caches are loaded from at start and saved to at exit; not kept if not set
+    static private String stemCacheFile = System.getProperty("tokenizer.stemCache");
+
+    private static final StemCache stemCache = new StemCache(stemCacheSize);
+
+    private static final LanguageDetector detector = languages == null ? null :
+            new LanguageDetector("english", languages.equals("all") ? Stemmers.languages() : languages.split(","));
+
+    private static final Map<String, Language> byLanguage = new LinkedHashMap<String, Language>();
+
+    static {
+        if (detector != null) {
+            for (String name : detector.languages()) {
+                byLanguage.put(name, new Language(name, name.equals("english") ? stemCache : new StemCache(stemCacheSize)));
+            }
+        }
+        if (stemCacheFile != null) {
+            loadStemCaches();
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    saveStemCaches();
+                }
+            });
+        }
+    }
+
+    /**
+     * The stem cache of every language, English first.
+     */
+    private static Map<String, StemCache> stemCaches() {
+        Map<String, StemCache> caches = new LinkedHashMap<String, StemCache>();
+        caches.put("english", stemCache);
+        for (Language language : byLanguage.values()) {
+            caches.put(language.name, language.stemCache);
+        }
+        return caches;
+    }
+
+    private static String stemCacheFile(String language) {
+        return language.equals("english") ? stemCacheFile : stemCacheFile + "." + language;
+    }
+
+    private static void loadStemCaches() {
+        for (Map.Entry<String, StemCache> entry : stemCaches().entrySet()) {
+            String fileName = stemCacheFile(entry.getKey());
+            // The first run has nothing to load
+            if (!new File(fileName).exists()) continue;
+            try {
+                entry.getValue().load(fileName, Stemmers.create(entry.getKey()));
+            } catch (IOException e) {
+                System.err.println("Cannot load the stem cache " + fileName + ": " + e);
+            }
+        }
+    }
+
+    private static void saveStemCaches() {
+        for (Map.Entry<String, StemCache> entry : stemCaches().entrySet()) {
+            if (entry.getValue().size() == 0) continue;
+            String fileName = stemCacheFile(entry.getKey());
+            try {
+                entry.getValue().save(fileName);
+            } catch (IOException e) {
+                System.err.println("Cannot save the stem cache " + fileName + ": " + e);
+            }
+        }
+    }
+
+    private static final ThreadLocal<Tokenizer> local = new ThreadLocal<Tokenizer>() {
+        @Override
+        protected Tokenizer initialValue() {
+            return new Tokenizer();
+        }
+    };
+
+    /**
+     * Get the tokenizer of the current thread.
+     */
+    public static Tokenizer get() {
+        return local.get();
+    }
+
+    /**
+     * The stem cache, to read its hit and miss counts or save it for a later warm-up.
+     */
+    public static StemCache stemCache() {
+        return stemCache;
+    }
+
+    /**
+     * Fill the stem cache from a vocabulary file, one word or "word\tstem" per line.
+     *
+     * @return the number of words loaded
+     */
+    public static int warmUp(String fileName) throws IOException {
+        return stemCache.load(fileName, get().stemmer);
+    }
+
+    /**
+     * Texts, words and time spent per detected language, one line each;
+     * empty if languages are not detected.
+     */
+    public static String languageStats() {
+        StringBuilder sb = new StringBuilder();
+        for (Language language : byLanguage.values()) {
+            long texts = language.texts.get();
+            if (texts == 0) continue;
+            long words = language.words.get();
+            double seconds = language.nanos.get() / 1e9;
+            sb.append(String.format("%s: %d texts, %d words, %.1f words/s, stem cache %s%n",
+                    language.name, texts, words, words / seconds, language.stemCache));
+        }
+        return sb.toString();
+    }
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final SnowballStemmer stemmer = Stemmers.create("english");
+    private final CharSequenceReader reader = new CharSequenceReader();
+    private char[] chars = new char[256];
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Append the words of text to the end of words.
+     *
+     * @return the number of words appended
+     */
+    public int cutWords(CharSequence text, List<String> words) throws IOException {
+        return cutWords(text, text, words);
+    }
+
+    /**
+     * Append the words of the description of the current line of record to the end of
+     * words, its language detected on the description as it was read.
+     *
+     * @return the number of words appended
+     */
+    public int cutWords(RecordReader record, List<String> words) throws IOException {
+        if (ascii && record.hasDescriptionBytes()) {
+            // straight from the bytes the line was read as, with no decoded copy
+            long start = System.nanoTime();
+            Language language = language(record.rawDescription());
+            int n = sanitize(record.lineBytes(), record.descriptionOffset(), record.descriptionLength(),
+                    record.isUtf8());
+            return cutAscii(chars, n, language, start, words);
+        }
+        return cutWords(record.description(), record.rawDescription(), words);
+    }
+
+    /**
+     * Append the words of text to the end of words, detecting the language on raw, the
+     * text before characters outside 0x20 to 0x7F were replaced, if languages are detected.
+     *
+     * @return the number of words appended
+     */
+    public int cutWords(CharSequence text, CharSequence raw, List<String> words) throws IOException {
+        long start = System.nanoTime();
+        Language language = language(raw);
+        if (ascii && isSanitized(text)) {
+            int len = text.length();
+            char[] chars = chars(len);
+            for (int i = 0; i < len; i++) {
+                chars[i] = lowerCase(text.charAt(i));
+            }
+            return cutAscii(chars, len, language, start, words);
+        }
+
+        int n = 0;
+        SnowballStemmer stemmer = language == null ? this.stemmer : Stemmers.get(language.name);
+        StemCache stemCache = language == null ? Tokenizer.stemCache : language.stemCache;
+        // Analyzer.tokenStream reuses the TokenStream, and for a String its reader too
+        TokenStream tokenStream;
+        if (text instanceof String) {
+            tokenStream = analyzer.tokenStream("", (String) text);
+        } else {
+            reader.setText(text);
+            tokenStream = analyzer.tokenStream("", reader);
+        }
+        try {
+            CharTermAttribute term = tokenStream.getAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                // if it is number, just skip
+                if (isNumber(term.buffer(), term.length())) continue;
+                // Stemming, straight from the term buffer
+                words.add(stemCache.stem(stemmer, term.buffer(), 0, term.length()));
+                n++;
+            }
+            tokenStream.end();
+        } finally {
+            tokenStream.close();
+        }
+        count(language, n, start);
+        return n;
+    }
+
+    /**
+     * Append the words of the raw bytes text[off, off + len), a description as it is in
+     * train.data, to the end of words, without Lucene. The bytes are sanitized as
+     * RecordReader does, a character outside 0x20 to 0x7F becoming '_', and cut as
+     * StandardAnalyzer cuts ASCII text.
+     *
+     * @param utf8 whether the bytes are UTF-8, where a character of several bytes becomes
+     *             one '_'; otherwise every byte is a character, as in US-ASCII or ISO-8859-1
+     * @return the number of words appended
+     */
+    public int cutWords(byte[] text, int off, int len, boolean utf8, List<String> words) {
+        long start = System.nanoTime();
+        int n = sanitize(text, off, len, utf8);
+        // Only the ASCII letters are left to tell the language from here
+        Language language = detector == null ? null : language(CharBuffer.wrap(chars, 0, n));
+        return cutAscii(chars, n, language, start, words);
+    }
+
+    /**
+     * Put text[off, off + len) into chars, lower-cased and sanitized as RecordReader would
+     * leave it once decoded: one '_' for each character outside 0x20 to 0x7F, a character
+     * beyond the BMP included, and one for each malformed sequence as the UTF-8 decoder
+     * replaces it.
+     *
+     * @return the number of chars
+     */
+    private int sanitize(byte[] text, int off, int len, boolean utf8) {
+        char[] chars = chars(len);
+        int n = 0;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            int b = text[i] & 0xFF;
+            if (b >= 0x20 && b <= 0x7F) {
+                chars[n++] = lowerCase((char) b);
+                continue;
+            }
+            chars[n++] = '_';
+            if (utf8 && b >= 0xC2 && b <= 0xF4) {
+                // skip the continuation bytes of the character, or of its well-formed start
+                int more = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : 1;
+                int low = b == 0xE0 ? 0xA0 : b == 0xF0 ? 0x90 : 0x80;
+                int high = b == 0xF4 ? 0x8F : 0xBF;
+                int j = i + 1;
+                if (j < end && (text[j] & 0xFF) >= low && (text[j] & 0xFF) <= high) {
+                    j++;
+                    while (j <= i + more && j < end && (text[j] & 0xC0) == 0x80) j++;
+                }
+                i = j - 1;
+            }
+        }
+        return n;
+    }
+
+    private char[] chars(int len) {
+        if (chars.length < len) chars = new char[Math.max(len, chars.length * 2)];
+        return chars;
+    }
+
+    /**
+     * Whether every character of text is in 0x20 to 0x7F, as RecordReader leaves a description.
+     */
+    private static boolean isSanitized(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x20 || c > 0x7F) return false;
+        }
+        return true;
+    }
+
+    private static char lowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private Language language(CharSequence text) {
+        return detector == null ? null : byLanguage.get(detector.detect(text));
+    }
+
+    private static void count(Language language, int n, long start) {
+        if (language != null) {
+            language.texts.incrementAndGet();
+            language.words.addAndGet(n);
+            language.nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // Word break classes of the ASCII characters, as in UAX #29
+    private static final byte OTHER = 0, LETTER = 1, NUMERIC = 2, EXTEND_NUM_LET = 3;
+
+    /**
+     * Cut chars[0, len), lower-cased ASCII, into words as StandardAnalyzer does: split at the
+     * word boundaries of UAX #29, keep the pieces with a letter or a digit, at most 255 chars
+     * long and not a stop word; then drop numbers and stem the rest.
+     */
+    private int cutAscii(char[] chars, int len, Language language, long start, List<String> words) {
+        SnowballStemmer stemmer = language == null ? this.stemmer : Stemmers.get(language.name);
+        StemCache stemCache = language == null ? Tokenizer.stemCache : language.stemCache;
+        int n = 0;
+        int i = 0;
+        while (i < len) {
+            if (wordBreakClass(chars[i]) == OTHER) {
+                i++;
+                continue;
+            }
+            int from = i;
+            boolean alphaNum = false;
+            do {
+                alphaNum |= wordBreakClass(chars[i]) == LETTER || wordBreakClass(chars[i]) == NUMERIC;
+                i++;
+            } while (i < len && !isBoundary(chars, i, len));
+            int length = i - from;
+            if (!alphaNum || length > maxTokenLength || isStopWord(chars, from, length)
+                    || isNumber(chars, from, length)) continue;
+            words.add(stemCache.stem(stemmer, chars, from, length));
+            n++;
+        }
+        count(language, n, start);
+        return n;
+    }
+
+    private static byte wordBreakClass(char c) {
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') return LETTER;
+        if (c >= '0' && c <= '9') return NUMERIC;
+        if (c == '_') return EXTEND_NUM_LET;
+        return OTHER;
+    }
+
+    /**
+     * Whether there is a word boundary between s[i - 1] and s[i], by the rules of UAX #29
+     * that ASCII characters can meet. Any other pair is a boundary.
+     */
+    private static boolean isBoundary(char[] s, int i, int len) {
+        byte x = wordBreakClass(s[i - 1]);
+        byte y = wordBreakClass(s[i]);
+        boolean xWord = x == LETTER || x == NUMERIC;
+        boolean yWord = y == LETTER || y == NUMERIC;
+        // WB5, WB8, WB9, WB10
+        if (xWord && yWord) return false;
+        // WB13a, WB13b
+        if ((xWord || x == EXTEND_NUM_LET) && y == EXTEND_NUM_LET) return false;
+        if (x == EXTEND_NUM_LET && yWord) return false;
+        // WB6, WB7: letter (MidLetter | MidNumLet | Single_Quote) letter
+        if (x == LETTER && isMidLetter(s[i]) && i + 1 < len && wordBreakClass(s[i + 1]) == LETTER) return false;
+        if (y == LETTER && isMidLetter(s[i - 1]) && i >= 2 && wordBreakClass(s[i - 2]) == LETTER) return false;
+        // WB11, WB12: digit (MidNum | MidNumLet | Single_Quote) digit
+        if (x == NUMERIC && isMidNum(s[i]) && i + 1 < len && wordBreakClass(s[i + 1]) == NUMERIC) return false;
+        if (y == NUMERIC && isMidNum(s[i - 1]) && i >= 2 && wordBreakClass(s[i - 2]) == NUMERIC) return false;
+        return true;
+    }
+
+    private static boolean isMidLetter(char c) {
+        return c == ':' || c == '.' || c == '\'';
+    }
+
+    private static boolean isMidNum(char c) {
+        return c == ',' || c == ';' || c == '.' || c == '\'';
+    }
+
+    // Longest word StandardAnalyzer keeps
+    private static final int maxTokenLength = StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
+
+    // StandardAnalyzer's stop words, by length
+    private static final char[][][] stopWords;
+
+    static {
+        int longest = 0;
+        for (Object word : StandardAnalyzer.STOP_WORDS_SET) {
+            longest = Math.max(longest, word.toString().length());
+        }
+        stopWords = new char[longest + 1][][];
+        for (int length = 0; length < stopWords.length; length++) {
+            List<char[]> same = new ArrayList<char[]>();
+            for (Object word : StandardAnalyzer.STOP_WORDS_SET) {
+                char[] w = word instanceof char[] ? (char[]) word : word.toString().toCharArray();
+                if (w.length == length) same.add(w);
+            }
+            stopWords[length] = same.toArray(new char[same.size()][]);
+        }
+    }
+
+    private static boolean isStopWord(char[] s, int from, int length) {
+        if (length >= stopWords.length) return false;
+        for (char[] w : stopWords[length]) {
+            int i = 0;
+            while (i < length && s[from + i] == w[i]) i++;
+            if (i == length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as word.matches("^\\d+(\\.\\d+)?$"), without the regex engine.
+     */
+    static boolean isNumber(char[] s, int len) {
+        return isNumber(s, 0, len);
+    }
+
+    static boolean isNumber(char[] s, int from, int len) {
+        int end = from + len;
+        int i = from;
+        while (i < end && s[i] >= '0' && s[i] <= '9') i++;
+        if (i == from) return false;
+        if (i == end) return true;
+        if (s[i] != '.' || ++i == end) return false;
+        while (i < end && s[i] >= '0' && s[i] <= '9') i++;
+        return i == end;
+    }
+
+    /**
+     * A Reader over a CharSequence, such as a field of a RecordReader, that can be reused.
+     */
+    private static class CharSequenceReader extends Reader {
+        private CharSequence text;
+        private int pos;
+
+        void setText(CharSequence text) {
+            this.text = text;
+            this.pos = 0;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int n = Math.min(len, text.length() - pos);
+            if (n <= 0) return len == 0 ? 0 : -1;
+            for (int i = 0; i < n; i++) {
+                cbuf[off + i] = text.charAt(pos++);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The stem cache and counters of a detected language.
+     */
+    private static class Language {
+        final String name;
+        final StemCache stemCache;
+        final AtomicLong texts = new AtomicLong();
+        final AtomicLong words = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+
+        Language(String name, StemCache stemCache) {
+            this.name = name;
+            this.stemCache = stemCache;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Words with dense IDs, 0 to size() - 1.
+ */
+public interface Vocabulary {
+
+    /**
+     * Get the ID of word, or -1 if word is not in the vocabulary.
+     */
+    int id(String word);
+
+    String get(int id);
+
+    int size();
+}
@@ -1,8 +1,14 @@
 package org.tartarus.snowball;
 
-import java.lang.reflect.Method;
-
 public class Among {
+    /**
+     * A routine an Among entry calls when its string matches; the entry only
+     * matches if the routine returns true.
+     */
+    public interface Routine {
+	boolean call();
+    }
+
     public Among (String s, int substring_i, int result,
 		  String methodname, SnowballProgram methodobject) {
         this.s_size = s.length();
@@ -11,14 +17,10 @@ public class Among {
 	this.result = result;
 	this.methodobject = methodobject;
 	if (methodname.length() == 0) {
-	    this.method = null;
+	    this.routine = null;
 	} else {
-	    try {
-		this.method = methodobject.getClass().
-		getDeclaredMethod(methodname, new Class[0]);
-	    } catch (NoSuchMethodException e) {
-		throw new RuntimeException(e);
-	    }
+	    // resolved once, when the tables are built, instead of by reflection
+	    this.routine = methodobject.among_routine(methodname);
 	}
     }
 
@@ -26,6 +28,7 @@ public class Among {
     public final char[] s; /* search string */
     public final int substring_i; /* index to longest matching substring */
     public final int result; /* result of the lookup */
-    public final Method method; /* method to use if substring matches */
-    public final SnowballProgram methodobject; /* object to invoke method on */
+    public final Routine routine; /* routine to call if substring matches */
+    public final SnowballProgram methodobject; /* object the routine is bound to */
+    AmongTrie trie; /* trie of the table, kept in its first entry */
 };
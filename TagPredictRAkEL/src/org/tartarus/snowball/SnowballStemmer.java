@@ -1,7 +1,24 @@
 
 package org.tartarus.snowball;
-import java.lang.reflect.InvocationTargetException;
 
 public abstract class SnowballStemmer extends SnowballProgram {
     public abstract boolean stem();
+
+    /**
+     * Stem buf[off, off + len) in place, without making a String.
+     * A stem can be longer than the word (German turns "\u00df" into
+     * "ss"), so it is only written back if it fits in buf.
+     *
+     * @return the length of the stem written at buf[off], or -1 if
+     * stem() returned false or the stem does not fit, in which case
+     * buf is left as it was
+     */
+    public int stem(char[] buf, int off, int len)
+    {
+	setCurrent(buf, off, len);
+	if (!stem()) return -1;
+	if (off + length > buf.length) return -1;
+	System.arraycopy(current, 0, buf, off, length);
+	return length;
+    }
 };
@@ -0,0 +1,265 @@
+
+package org.tartarus.snowball;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of word to stem, shared by the threads stemming one
+ * language. Words are looked up straight from a char range, so a hit
+ * costs one hash lookup and makes no String.
+ *
+ * The cache is split into segments, each a LinkedHashMap in access
+ * order that drops its least recently used word when full, and locked
+ * on its own so that threads rarely wait for each other.
+ */
+public class StemCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // The key used for lookups, one per thread, so a lookup allocates nothing
+    private final ThreadLocal<Key> probe = new ThreadLocal<Key>() {
+	@Override
+	protected Key initialValue() {
+	    return new Key();
+	}
+    };
+
+    /**
+     * @param capacity the most words kept, at least one per segment
+     */
+    public StemCache(int capacity)
+    {
+	int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+	for (int i = 0; i < SEGMENTS; i++) {
+	    segments[i] = new Segment(segmentCapacity);
+	}
+    }
+
+    /**
+     * Get the stem of buf[off, off + len), stemming it with stemmer if
+     * it is not cached. A word stem() returns false for is its own
+     * stem. The stemmer must only be used by the calling thread.
+     */
+    public String stem(SnowballStemmer stemmer, char[] buf, int off, int len)
+    {
+	Key key = probe.get();
+	key.set(buf, off, len);
+	Segment segment = segmentFor(key.hash);
+	String stem;
+	synchronized (segment) {
+	    stem = segment.get(key);
+	}
+	key.chars = null;
+	if (stem != null) {
+	    hits.incrementAndGet();
+	    return stem;
+	}
+	misses.incrementAndGet();
+
+	stemmer.setCurrent(buf, off, len);
+	if (stemmer.stem()) {
+	    stem = stemmer.getCurrent();
+	} else {
+	    stem = new String(buf, off, len);
+	}
+	put(new Key(buf, off, len), stem);
+	return stem;
+    }
+
+    public String stem(SnowballStemmer stemmer, String word)
+    {
+	return stem(stemmer, word.toCharArray(), 0, word.length());
+    }
+
+    private void put(Key key, String stem)
+    {
+	Segment segment = segmentFor(key.hash);
+	synchronized (segment) {
+	    segment.put(key, stem);
+	}
+    }
+
+    private Segment segmentFor(int hash)
+    {
+	// spread the high bits, as the words of a segment share the low ones
+	return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Fill the cache from a vocabulary file of one word per line, such
+     * as one written by save(). A line "word\tstem" is taken as it is,
+     * a line with a word alone is stemmed with stemmer. Lookups made
+     * while loading do not count as hits or misses.
+     *
+     * @return the number of words loaded
+     */
+    public int load(String fileName, SnowballStemmer stemmer) throws IOException
+    {
+	BufferedReader in = new BufferedReader(
+		new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+	int n = 0;
+	try {
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		if (line.length() == 0) continue;
+		int tab = line.indexOf('\t');
+		String word = tab < 0 ? line : line.substring(0, tab);
+		String stem;
+		if (tab >= 0) {
+		    stem = line.substring(tab + 1);
+		} else {
+		    stemmer.setCurrent(word);
+		    stem = stemmer.stem() ? stemmer.getCurrent() : word;
+		}
+		put(new Key(word.toCharArray(), 0, word.length()), stem);
+		n++;
+	    }
+	} finally {
+	    in.close();
+	}
+	return n;
+    }
+
+    /**
+     * Write the cached words as "word\tstem" lines, which load() reads
+     * back.
+     *
+     * @return the number of words written
+     */
+    public int save(String fileName) throws IOException
+    {
+	Writer out = new BufferedWriter(
+		new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"));
+	int n = 0;
+	try {
+	    for (Segment segment : segments) {
+		synchronized (segment) {
+		    for (Map.Entry<Key, String> e : segment.entrySet()) {
+			Key key = e.getKey();
+			out.write(key.chars, key.off, key.len);
+			out.write('\t');
+			out.write(e.getValue());
+			out.write('\n');
+			n++;
+		    }
+		}
+	    }
+	} finally {
+	    out.close();
+	}
+	return n;
+    }
+
+    public int size()
+    {
+	int n = 0;
+	for (Segment segment : segments) {
+	    synchronized (segment) {
+		n += segment.size();
+	    }
+	}
+	return n;
+    }
+
+    public long hits()
+    {
+	return hits.get();
+    }
+
+    public long misses()
+    {
+	return misses.get();
+    }
+
+    public String toString()
+    {
+	long h = hits.get();
+	long m = misses.get();
+	return String.format("%d words cached, %d hits, %d misses, %.1f%% hit rate",
+			     size(), h, m, h + m == 0 ? 0.0 : 100.0 * h / (h + m));
+    }
+
+    private static class Segment extends LinkedHashMap<Key, String> {
+	private static final long serialVersionUID = 1L;
+
+	private final int capacity;
+
+	Segment(int capacity)
+	{
+	    super(16, 0.75f, true);
+	    this.capacity = capacity;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<Key, String> eldest)
+	{
+	    return size() > capacity;
+	}
+    }
+
+    /**
+     * A word as a char range. Cached keys own a copy of their chars, the
+     * probe key points into the caller's buffer for one lookup.
+     */
+    private static class Key {
+	char[] chars;
+	int off;
+	int len;
+	int hash;
+
+	Key()
+	{
+	}
+
+	Key(char[] buf, int off, int len)
+	{
+	    char[] copy = new char[len];
+	    System.arraycopy(buf, off, copy, 0, len);
+	    set(copy, 0, len);
+	}
+
+	void set(char[] buf, int off, int len)
+	{
+	    this.chars = buf;
+	    this.off = off;
+	    this.len = len;
+	    int h = 0;
+	    for (int i = off; i < off + len; i++) {
+		h = 31 * h + buf[i];
+	    }
+	    this.hash = h;
+	}
+
+	@Override
+	public int hashCode()
+	{
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+	    if (!(o instanceof Key)) return false;
+	    Key other = (Key) o;
+	    if (other.len != len || other.hash != hash) return false;
+	    for (int i = 0; i < len; i++) {
+		if (chars[off + i] != other.chars[other.off + i]) return false;
+	    }
+	    return true;
+	}
+    }
+}
@@ -1036,6 +1036,25 @@ private static final long serialVersionUID = 1L;
                     cursor = limit_backward;                    return true;
                 }
 
+        protected Among.Routine among_routine(String methodname) {
+            switch (methodname) {
+                case "r_VI":
+                    return new Among.Routine() {
+                        public boolean call() {
+                            return r_VI();
+                        }
+                    };
+                case "r_LONG":
+                    return new Among.Routine() {
+                        public boolean call() {
+                            return r_LONG();
+                        }
+                    };
+                default:
+                    return super.among_routine(methodname);
+            }
+        }
+
         public boolean equals( Object o ) {
             return o instanceof finnishStemmer;
         }
@@ -0,0 +1,166 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The document counts Translate computes the IDF from, kept next to TFIDF so that new
+ * lines can be folded in without reading the old ones again: the number of lines, and the
+ * number of lines holding each word seen, the words of the vocabulary and the words left
+ * out of it alike, since more lines may bring the latter up to the thresholds. The files
+ * counted are listed too, so that the same one is not counted twice.
+ *
+ * Layout, big-endian:
+ * <pre>
+ *   header  int magic, int version, int documents, int nWords, int nCounts, int nInputs
+ *   inputs  nInputs times the UTF name, long size and int lines of a file counted
+ *   counts  nCounts times a UTF word and an int count, the nWords words of the vocabulary
+ *           first in attribute order, then the others in the order of the lines that first
+ *           held them (the words first held by the same line in no particular order)
+ * </pre>
+ */
+public class CountsFile {
+
+    static final int MAGIC = 0x54464443; // "TFDC"
+    static final int VERSION = 2;
+
+    // Lines counted
+    public int documents;
+    // The vocabulary in attribute order, only ever appended to
+    public final ArrayList<String> words;
+    // Lines holding each word, in the order of the file
+    public final LinkedHashMap<String, Integer> counts;
+    // Files counted, in the order they were
+    public final ArrayList<Input> inputs = new ArrayList<Input>();
+
+    /**
+     * A file counted: its name, its size in bytes and its number of lines.
+     */
+    public static class Input {
+        public final String name;
+        public final long size;
+        public final int lines;
+
+        public Input(String name, long size, int lines) {
+            this.name = name;
+            this.size = size;
+            this.lines = lines;
+        }
+    }
+
+    public CountsFile(int documents, List<String> words, LinkedHashMap<String, Integer> counts) {
+        this.documents = documents;
+        this.words = new ArrayList<String>(words);
+        this.counts = counts;
+    }
+
+    /**
+     * Count a line holding each of lineWords once.
+     */
+    public void addDocument(Set<String> lineWords) {
+        documents++;
+        for (String word : lineWords) {
+            Integer count = counts.get(word);
+            counts.put(word, count == null ? 1 : count + 1);
+        }
+    }
+
+    public void addInput(String name, long size, int lines) {
+        inputs.add(new Input(name, size, lines));
+    }
+
+    /**
+     * Whether a file of this name, size and number of lines was counted already.
+     */
+    public boolean counted(String name, long size, int lines) {
+        for (Input input : inputs) {
+            if (input.name.equals(name) && input.size == size && input.lines == lines) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append to the vocabulary the words not in it that Translate.inVocabulary takes now,
+     * in the order they are in counts, so the words already in it keep their index.
+     *
+     * @return the number of words appended
+     */
+    public int extendVocabulary() {
+        Set<String> known = new HashSet<String>(words);
+        int added = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (!known.contains(entry.getKey()) && Translate.inVocabulary(entry.getKey(), entry.getValue())) {
+                words.add(entry.getKey());
+                added++;
+            }
+        }
+        return added;
+    }
+
+    public void save(String fileName) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(documents);
+            out.writeInt(words.size());
+            out.writeInt(counts.size());
+            out.writeInt(inputs.size());
+            for (Input input : inputs) {
+                out.writeUTF(input.name);
+                out.writeLong(input.size);
+                out.writeInt(input.lines);
+            }
+            Set<String> known = new HashSet<String>(words);
+            for (String word : words) {
+                out.writeUTF(word);
+                out.writeInt(counts.get(word));
+            }
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                if (known.contains(entry.getKey())) continue;
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static CountsFile load(String fileName) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not a document counts file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(fileName + " has version " + version + ", expected " + VERSION);
+            }
+            int documents = in.readInt();
+            int nWords = in.readInt();
+            int nCounts = in.readInt();
+            int nInputs = in.readInt();
+            ArrayList<Input> inputs = new ArrayList<Input>(nInputs);
+            for (int i = 0; i < nInputs; i++) {
+                inputs.add(new Input(in.readUTF(), in.readLong(), in.readInt()));
+            }
+            ArrayList<String> words = new ArrayList<String>(nWords);
+            LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>(2 * nCounts);
+            for (int i = 0; i < nCounts; i++) {
+                String word = in.readUTF();
+                counts.put(word, in.readInt());
+                if (i < nWords) words.add(word);
+            }
+            CountsFile countsFile = new CountsFile(documents, words, counts);
+            countsFile.inputs.addAll(inputs);
+            return countsFile;
+        } catch (EOFException e) {
+            throw new IOException(fileName + " is truncated");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes numbers as String.format("%f", x) and String.valueOf(n) do, into a reused char
+ * buffer, with no Formatter, no locale lookup and nothing allocated per number.
+ *
+ * A float is rounded to 6 decimals half up from its exact binary value. String.format
+ * rounds the shortest decimal of the value instead, but for a float the two only part on
+ * ties, and no float is near enough to a tie that its shortest decimal lands on one.
+ * The decimal separator is always '.', which is what ARFF needs whatever the locale.
+ * FloatFormatCheck compares the two.
+ */
+public class FloatFormat {
+
+    // Digits after the decimal point, as %f
+    static final int PRECISION = 6;
+    private static final long SCALE = 1000000;
+
+    // Above this, M * SCALE << E may overflow a long; String.format handles those
+    private static final float LARGEST = 1L << 40;
+
+    private final char[] buf = new char[32];
+
+    /**
+     * Write x as String.format("%f", x) would.
+     */
+    public void write(Writer out, float x) throws IOException {
+        out.write(buf, 0, format(x, buf, 0));
+    }
+
+    /**
+     * Write n as String.valueOf(n) would.
+     */
+    public void write(Writer out, int n) throws IOException {
+        out.write(buf, 0, format(n, buf, 0));
+    }
+
+    /**
+     * Put x as String.format("%f", x) would at buf[off].
+     *
+     * @return the offset after the last char
+     */
+    public static int format(float x, char[] buf, int off) {
+        if (Float.isNaN(x) || Float.isInfinite(x) || Math.abs(x) >= LARGEST) {
+            String s = String.format("%f", x);
+            s.getChars(0, s.length(), buf, off);
+            return off + s.length();
+        }
+        int bits = Float.floatToRawIntBits(x);
+        if (bits < 0) buf[off++] = '-';
+        int exponent = (bits >> 23) & 0xFF;
+        long mantissa = bits & 0x7FFFFF;
+        if (exponent == 0) {
+            exponent = 1; // subnormal
+        } else {
+            mantissa |= 1 << 23;
+        }
+        // |x| = mantissa * 2^shift
+        int shift = exponent - 150;
+
+        // round |x| * 10^6 half up
+        long scaled = mantissa * SCALE;
+        long units;
+        if (shift >= 0) {
+            units = scaled << shift;
+        } else if (-shift >= 62) {
+            units = 0; // scaled < 2^44, far below half a unit
+        } else {
+            units = scaled >> -shift;
+            long rest = scaled - (units << -shift);
+            if (rest >= 1L << (-shift - 1)) units++;
+        }
+
+        long integer = units / SCALE;
+        long fraction = units % SCALE;
+        off = format(integer, buf, off);
+        buf[off++] = '.';
+        for (int i = PRECISION - 1; i >= 0; i--) {
+            buf[off + i] = (char) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return off + PRECISION;
+    }
+
+    /**
+     * Put n in decimal at buf[off].
+     *
+     * @return the offset after the last char
+     */
+    public static int format(long n, char[] buf, int off) {
+        if (n < 0) {
+            if (n == Long.MIN_VALUE) {
+                String s = Long.toString(n);
+                s.getChars(0, s.length(), buf, off);
+                return off + s.length();
+            }
+            buf[off++] = '-';
+            n = -n;
+        }
+        int digits = 1;
+        for (long p = 10; digits < 19 && n >= p; p *= 10) digits++;
+        for (int i = digits - 1; i >= 0; i--) {
+            buf[off + i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+        return off + digits;
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that FloatFormat writes floats as String.format("%f", x) does: every float of
+ * a binade where the 6th decimal is the last, random floats of every exponent,
+ * the floats nearest each rounding tie, and the special values. Times both, prints the
+ * floats that differ and exits with 1 if any does.
+ *
+ * Usage: FloatFormatCheck [random floats], 10000000 by default
+ */
+public class FloatFormatCheck {
+
+    private static final char[] buf = new char[64];
+    private static long checked = 0;
+    private static int differ = 0;
+
+    public static void main(String[] args) throws IOException {
+        int randoms = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+        // every float of [1/1024, 1/512), some 500 of them for each value of the 6th decimal
+        for (float x = 1f / 1024; x < 1f / 512; x = Math.nextUp(x)) {
+            check(x);
+        }
+
+        // floats on each side of the ties n.5e-6, where rounding half up has to be exact
+        Random random = new Random(42);
+        for (int i = 0; i < 2000000; i++) {
+            double tie = (random.nextInt(20000000) + 0.5) / 1e6;
+            float x = (float) tie;
+            check(x);
+            check(Math.nextUp(x));
+            check(Math.nextAfter(x, 0));
+        }
+        for (float x : new float[]{0.0078125f, 0.0234375f, 1.5e-6f, 2.5e-6f, 0.5f, 1.0000005f}) {
+            check(x);
+            check(-x);
+        }
+
+        // random floats of every exponent, as bits
+        for (int i = 0; i < randoms; i++) {
+            check(Float.intBitsToFloat(random.nextInt()));
+        }
+
+        for (float x : new float[]{0f, -0f, Float.MIN_VALUE, Float.MIN_NORMAL, Float.MAX_VALUE,
+                Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 1L << 40, -(1L << 40),
+                Math.nextAfter(1L << 40, 0), 123456789f}) {
+            check(x);
+        }
+        for (int n : new int[]{0, 1, -1, 9, 10, 99, 100, 123456, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            String actual = new String(buf, 0, FloatFormat.format(n, buf, 0));
+            if (!actual.equals(String.valueOf(n))) report(n, String.valueOf(n), actual);
+        }
+
+        System.out.println(String.format("%d floats, %d differ", checked, differ));
+        time(random);
+        if (differ > 0) System.exit(1);
+    }
+
+    private static void check(float x) {
+        checked++;
+        String expected = String.format("%f", x);
+        String actual = new String(buf, 0, FloatFormat.format(x, buf, 0));
+        if (!expected.equals(actual)) report(x, expected, actual);
+    }
+
+    private static void report(Object x, String expected, String actual) {
+        if (differ++ < 20) {
+            System.out.println(x + ": String.format " + expected + ", FloatFormat " + actual);
+        }
+    }
+
+    /**
+     * Time both on values like the TF-IDF features, a TF times an IDF.
+     */
+    private static void time(Random random) {
+        float[] values = new float[1000000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) (random.nextInt(50) + 1) / (random.nextInt(200) + 1)
+                    * (float) Math.log(20000f / (random.nextInt(20000) + 1));
+        }
+        long length = 0;
+        long t0 = System.nanoTime();
+        for (float x : values) {
+            length += String.format("%f", x).length();
+        }
+        long t1 = System.nanoTime();
+        for (float x : values) {
+            length -= FloatFormat.format(x, buf, 0);
+        }
+        long t2 = System.nanoTime();
+        if (length != 0) System.out.println("Lengths differ");
+        System.out.println(String.format("%d values: String.format %.1f ms, FloatFormat %.1f ms",
+                values.length, (t1 - t0) / 1e6, (t2 - t1) / 1e6));
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The vocabulary Translate learns, in a file that is mapped rather than deserialized: the
+ * words in attribute order with their IDF, and the tags. Looking a word up searches the
+ * mapped bytes, so nothing is built on the heap when the file is loaded.
+ *
+ * The header holds the size and CRC-32 of the serialized TFIDF file the vocabulary was
+ * written with, so a reader can tell whether it still matches that file (see isFor).
+ *
+ * Layout, big-endian, each section starting at a multiple of 8 bytes:
+ * <pre>
+ *   header  int magic, int version, int nWords, int nTags, long tfidfSize, long tfidfCrc
+ *   words   a MappedVocabulary, word i being attribute tfidf_i
+ *   idf     float[nWords]
+ *   tags    a MappedVocabulary, tag i being the i-th label
+ * </pre>
+ */
+public class TfidfFile {
+
+    static final int MAGIC = 0x54464944; // "TFID"
+    static final int VERSION = 2;
+    static final int HEADER = 32;
+
+    public final MappedVocabulary words;
+    public final MappedVocabulary tags;
+    private final FloatBuffer idf;
+
+    private TfidfFile(MappedVocabulary words, FloatBuffer idf, MappedVocabulary tags) {
+        this.words = words;
+        this.idf = idf;
+        this.tags = tags;
+    }
+
+    public float idf(int word) {
+        return idf.get(word);
+    }
+
+    /**
+     * Write the vocabulary of tfidfFile, the serialized TFIDF holding the same lists, which
+     * has to be written already.
+     */
+    public static void save(String fileName, String tfidfFile, List<String> wordList,
+                            Map<String, Float> idfMap, List<String> tagList) throws IOException {
+        File tfidf = new File(tfidfFile);
+        long tfidfSize = tfidf.length();
+        long tfidfCrc = crc(tfidf);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(wordList.size());
+            out.writeInt(tagList.size());
+            out.writeLong(tfidfSize);
+            out.writeLong(tfidfCrc);
+            int pos = HEADER;
+            pos = pad(out, pos + MappedVocabulary.write(out, wordList));
+            for (String word : wordList) {
+                out.writeFloat(idfMap.get(word));
+            }
+            pos = pad(out, pos + 4 * wordList.size());
+            pad(out, pos + MappedVocabulary.write(out, tagList));
+        } finally {
+            out.close();
+        }
+    }
+
+    public static TfidfFile load(String fileName) throws IOException {
+        FileInputStream in = new FileInputStream(fileName);
+        MappedByteBuffer buf;
+        try {
+            FileChannel channel = in.getChannel();
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the channel is closed
+            in.close();
+        }
+
+        if (buf.limit() < HEADER || buf.getInt(0) != MAGIC) {
+            throw new IOException(fileName + " is not a TF-IDF vocabulary file");
+        }
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException(fileName + " has version " + buf.getInt(4) + ", expected " + VERSION);
+        }
+        int nWords = buf.getInt(8);
+        int pos = HEADER;
+
+        ByteBuffer view = buf.duplicate();
+        view.position(pos);
+        MappedVocabulary words = new MappedVocabulary(view);
+        pos = align(pos + words.byteSize());
+        if (words.size() != nWords || pos + 4 * nWords > buf.limit()) {
+            throw new IOException(fileName + " is truncated");
+        }
+        view = buf.duplicate();
+        view.position(pos);
+        view.limit(pos + 4 * nWords);
+        FloatBuffer idf = view.slice().asFloatBuffer();
+        pos = align(pos + 4 * nWords);
+        view = buf.duplicate();
+        view.position(pos);
+        MappedVocabulary tags = new MappedVocabulary(view);
+        return new TfidfFile(words, idf, tags);
+    }
+
+    /**
+     * Whether fileName is a vocabulary of this version written with tfidfFile as it is now,
+     * by its size and CRC-32 rather than the times the two were modified, which copies and
+     * checkouts do not keep in order.
+     */
+    public static boolean isFor(String fileName, String tfidfFile) throws IOException {
+        File file = new File(fileName);
+        if (!file.exists() || file.length() < HEADER) return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            in.readInt();
+            in.readInt();
+            File tfidf = new File(tfidfFile);
+            return in.readLong() == tfidf.length() && in.readLong() == crc(tfidf);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                crc.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private static int align(int pos) {
+        return (pos + 7) & ~7;
+    }
+
+    private static int pad(DataOutputStream out, int pos) throws IOException {
+        while ((pos & 7) != 0) {
+            out.writeByte(0);
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * Checks that Tokenizer cuts the raw bytes of a data file into the same words as
+ * StandardAnalyzer cuts the descriptions RecordReader reads from it, line by line, and
+ * times both. Then does the same for descriptions holding the byte sequences the data files
+ * may lack: characters of 2 to 4 bytes, malformed and truncated UTF-8, each read as UTF-8,
+ * ISO-8859-1 and US-ASCII. Prints the lines that differ and exits with 1 if any does.
+ *
+ * Usage: TokenizerCheck [data file...], train.data and test.data by default
+ */
+public class TokenizerCheck {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) args = new String[]{"train.data", "test.data"};
+        int differ = 0;
+        for (String file : args) {
+            differ += check(file);
+        }
+        differ += checkSequences();
+        if (differ > 0) System.exit(1);
+    }
+
+    // Byte sequences put between "foo" and "bar", and at the end of a description
+    private static final int[][] SEQUENCES = {
+            {0xC3, 0xA9},               // U+00E9
+            {0xE2, 0x82, 0xAC},         // U+20AC
+            {0xF0, 0x9F, 0x98, 0x80},   // U+1F600, a surrogate pair once decoded
+            {0xF4, 0x8F, 0xBF, 0xBF},   // U+10FFFF
+            {0xF0, 0x9F, 0x98, 0x80, 0xF0, 0x90, 0x80, 0x80},
+            {0xC3},                     // truncated
+            {0xE2, 0x82},
+            {0xF0, 0x9F, 0x98},
+            {0xF0, 0x9F, 0x98, 0x41},
+            {0x80},                     // continuation byte alone
+            {0xBF, 0x80, 0x80},
+            {0xC0, 0x80},               // overlong
+            {0xC1, 0xBF},
+            {0xE0, 0x80, 0x80},
+            {0xF0, 0x80, 0x80, 0x80},
+            {0xED, 0xA0, 0x80},         // surrogate
+            {0xED, 0xA0, 0x80, 0xED, 0xB0, 0x80},
+            {0xF4, 0x90, 0x80, 0x80},   // beyond U+10FFFF
+            {0xF5, 0x80, 0x80, 0x80},
+            {0xFF, 0xFE},
+            {0x09, 0x7F, 0x1F},         // ASCII outside 0x20 to 0x7E
+    };
+
+    /**
+     * Check each of SEQUENCES between two words and at the end of a description, cut from
+     * the bytes against cut from the description RecordReader reads from them decoded.
+     */
+    private static int checkSequences() throws IOException {
+        Tokenizer tokenizer = Tokenizer.get();
+        ArrayList<String> expected = new ArrayList<String>();
+        ArrayList<String> actual = new ArrayList<String>();
+        int lines = 0;
+        int differ = 0;
+        for (String charset : new String[]{"UTF-8", "ISO-8859-1", "US-ASCII"}) {
+            for (int[] sequence : SEQUENCES) {
+                for (boolean atEnd : new boolean[]{false, true}) {
+                    ByteArrayOutputStream description = new ByteArrayOutputStream();
+                    description.write("foo".getBytes("US-ASCII"));
+                    for (int b : sequence) description.write(b);
+                    if (!atEnd) description.write(" Bar".getBytes("US-ASCII"));
+                    byte[] bytes = description.toByteArray();
+                    lines++;
+
+                    String line = "1#$#" + Charset.forName(charset).newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                            .decode(ByteBuffer.wrap(bytes)) + "#$#tag";
+                    RecordReader record = new RecordReader(new StringReader(line));
+                    record.next();
+                    expected.clear();
+                    tokenizer.cutWords(record.description(), expected);
+                    actual.clear();
+                    tokenizer.cutWords(bytes, 0, bytes.length, charset.equals("UTF-8"), actual);
+
+                    if (!expected.equals(actual)) {
+                        if (differ++ < 10) {
+                            System.out.println(charset + " " + hex(sequence) + (atEnd ? " at the end" : ""));
+                            System.out.println("  StandardAnalyzer " + expected);
+                            System.out.println("  bytes            " + actual);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("sequences: %d lines, %d lines differ", lines, differ));
+        return differ;
+    }
+
+    private static String hex(int[] sequence) {
+        StringBuilder sb = new StringBuilder();
+        for (int b : sequence) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+
+    private static int check(String file) throws IOException {
+        // RecordReader decodes with the default charset, the bytes have to be read the same way
+        boolean utf8 = Charset.defaultCharset().name().equals("UTF-8");
+        byte[] bytes = read(file);
+        Tokenizer tokenizer = Tokenizer.get();
+        ArrayList<String> expected = new ArrayList<String>();
+        ArrayList<String> actual = new ArrayList<String>();
+        long standardNanos = 0;
+        long asciiNanos = 0;
+        int lines = 0;
+        long words = 0;
+        int differ = 0;
+
+        RecordReader record = new RecordReader(new FileReader(file));
+        int pos = 0;
+        try {
+            while (record.next()) {
+                // the same line in the bytes, ended by \n, \r or \r\n
+                int start = pos;
+                while (pos < bytes.length && bytes[pos] != '\n' && bytes[pos] != '\r') pos++;
+                int end = pos;
+                if (pos < bytes.length && bytes[pos++] == '\r' && pos < bytes.length && bytes[pos] == '\n') pos++;
+                if (record.fieldCount() < 2) continue;
+                lines++;
+
+                // the description is between the first and the second "#$#"
+                int from = find(bytes, start, end) + 3;
+                int to = find(bytes, from, end);
+                if (to < 0) to = end;
+
+                expected.clear();
+                long t0 = System.nanoTime();
+                tokenizer.cutWords(record.description(), expected);
+                long t1 = System.nanoTime();
+                actual.clear();
+                tokenizer.cutWords(bytes, from, to - from, utf8, actual);
+                long t2 = System.nanoTime();
+                standardNanos += t1 - t0;
+                asciiNanos += t2 - t1;
+                words += expected.size();
+
+                if (!expected.equals(actual)) {
+                    if (differ++ < 10) {
+                        System.out.println(file + ":" + lines + ": " + record.description());
+                        System.out.println("  StandardAnalyzer " + expected);
+                        System.out.println("  bytes            " + actual);
+                    }
+                }
+            }
+        } finally {
+            record.close();
+        }
+        System.out.println(String.format("%s: %d lines, %d words, %d lines differ; StandardAnalyzer %.1f ms, bytes %.1f ms",
+                file, lines, words, differ, standardNanos / 1e6, asciiNanos / 1e6));
+        return differ;
+    }
+
+    private static int find(byte[] b, int from, int to) {
+        for (int i = from; i + 2 < to; i++) {
+            if (b[i] == '#' && b[i + 1] == '$' && b[i + 2] == '#') return i;
+        }
+        return -1;
+    }
+
+    private static byte[] read(String file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] bytes = new byte[buf.limit()];
+            buf.get(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
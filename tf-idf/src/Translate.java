@@ -1,5 +1,6 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -7,26 +8,27 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.ObjectOutputStream;
 import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.tartarus.snowball.SnowballStemmer;
-import org.tartarus.snowball.ext.englishStemmer;
-
 
 public class Translate {
 	
@@ -40,132 +42,387 @@ public class Translate {
 	static HashMap<Integer, Set<String>> tagsMap;
 	static ArrayList<String> wordList;
 	static ArrayList<String> tagList;
-	
-	static SnowballStemmer stemmer = new englishStemmer();
-	
-    static ArrayList<String> cutWords(String text) throws IOException {
-    	ArrayList<String> words = new ArrayList<String>();
-    	// using ApacheLucene StandardAnalyzer to cut words
-    	Reader reader = new StringReader(text);
-    	Analyzer analyzer = new StandardAnalyzer();
-    	TokenStream tokenStream = analyzer.tokenStream("", reader);
-    	CharTermAttribute term = tokenStream.getAttribute(CharTermAttribute.class);
-    	tokenStream.reset();
-    	while (tokenStream.incrementToken()) {
-    		String word = term.toString();
-    		// if it is number, just skip
-    		if (word.matches("^\\d+(\\.\\d+)?$")) continue;
-    		// Stemming
-    		stemmer.setCurrent(word);
-    		if (stemmer.stem()) {
-    			words.add(stemmer.getCurrent());
-    		} else {
-    			words.add(word);
-    		}  		
-    	}
-    	analyzer.close();
-    	return words;
-    }
+	// Write sparse ARFF rows, {index value, ...}, holding only the non-zero values
+	static boolean sparse = false;
+	// Writes the feature values and indices without String.format
+	static FloatFormat floatFormat = new FloatFormat();
+	// Read the input twice, counting document frequencies and then writing the rows, so
+	// that only the vocabulary is held in memory rather than the TF of every line
+	static boolean streaming = false;
+	// Lines holding each word of wordList, and each word left out of it, out of documentCount;
+	// wordOrder has the words counted in the order of the lines that first hold them
+	static HashMap<String, Integer> wordCount;
+	static ArrayList<String> wordOrder;
+	static LinkedHashMap<String, Integer> rareWordCount;
+	static int documentCount;
+	static String countsFile = "TFIDF.counts";
+	// Threads counting words, each a chunk of the input at a time, 1 to count on this thread
+	static int threads = 1;
+	// Bytes of the input in a chunk, and chunks counted ahead of the one merged next, per thread
+	static int chunkBytes = 1 << 18;
+	static int chunksAhead = 4;
 	
 	public static void translate(FileInputStream inputStream, 
 			FileOutputStream outputStream) throws IOException {
-		InputStreamReader inputStreamReader = new InputStreamReader(inputStream);
-        BufferedReader br = new BufferedReader(inputStreamReader); 
+		RecordReader record = new RecordReader(inputStream);
 		OutputStreamWriter outputStreamWriter = new OutputStreamWriter(outputStream);
 		BufferedWriter bw = new BufferedWriter(outputStreamWriter);
 		
 		// ARFF Headers
 		bw.write("@relation tagpred\n\n");
 		
-		String line;
 		int lineNumber = 0;
 		tfMap = new HashMap<Integer, HashMap<String, Float>>();
 		idfMap = new HashMap<String, Float>();
 		tagsMap = new HashMap<Integer, Set<String>>();
-		HashMap<String, Integer> wordCount = new HashMap<String, Integer>();
-		while ((line = br.readLine()) != null) {
-			lineNumber++;
-			String[] splited = line.split("#\\$#");
-			String description = splited[1].replaceAll("[^\\x20-\\x7F]", "_");
-			String taglist = splited[2];
-			String[] tags = taglist.split(",");
-			tagsMap.put(lineNumber, new HashSet<String>(Arrays.asList(tags)));
-			
-			ArrayList<String> wordList = cutWords(description);
-			
-			HashMap<String, Integer> statistics = new HashMap<String, Integer>();
-			for (String word: wordList) {
-				// Count in only this file (for TF)
-				if (statistics.get(word) == null) {
-					statistics.put(word, 1);
-				} else {
-					statistics.replace(word, statistics.get(word) + 1);
-				}
-			}
-			// Count # of files that this word is shown (for IDF) 
-			for (Map.Entry<String, Integer> entry: statistics.entrySet()) {
-				String word = entry.getKey();
-				if (wordCount.get(word) == null) {
-					wordCount.put(word, 1);
-				} else {
-					wordCount.replace(word, wordCount.get(word) + 1);
+		wordCount = new HashMap<String, Integer>();
+		wordOrder = new ArrayList<String>();
+		rareWordCount = new LinkedHashMap<String, Integer>();
+		Tokenizer tokenizer = Tokenizer.get();
+		ArrayList<String> words = new ArrayList<String>();
+		if (threads > 1) {
+			lineNumber = countParallel(inputStream, wordCount);
+		} else {
+			while (record.next()) {
+				lineNumber++;
+				HashMap<String, Integer> statistics = countWords(tokenizer, record, words);
+				// Count # of files that this word is shown (for IDF) 
+				for (Map.Entry<String, Integer> entry: statistics.entrySet()) {
+					String word = entry.getKey();
+					if (wordCount.get(word) == null) {
+						wordCount.put(word, 1);
+						wordOrder.add(word);
+					} else {
+						wordCount.replace(word, wordCount.get(word) + 1);
+					}
 				}
+				// Streaming, the TF and tags are found again when the line is read a second time
+				if (streaming) continue;
+				tagsMap.put(lineNumber, readTags(record));
+				tfMap.put(lineNumber, termFrequency(statistics, words.size()));
 			}
-			// Calculate & save TF value
-			HashMap<String, Float> termFrequency = new HashMap<String, Float>();
-			for (Map.Entry<String, Integer> entry: statistics.entrySet()) {
-				termFrequency.put(entry.getKey().toString(), (float)entry.getValue() / wordList.size());
-			}
-			tfMap.put(lineNumber, termFrequency);
-		}
-		// Remove words which showing times < 3 or length <= 2
-		Iterator<Map.Entry<String, Integer>> iter = wordCount.entrySet().iterator();
-		while (iter.hasNext()) {
-			Map.Entry<String, Integer> entry = iter.next();
-			if (entry.getValue() < 3 || entry.getKey().length() <= 2) {
-				iter.remove();
+		}
+		// Remove words which showing times < 3 or length <= 2, keeping their counts in the
+		// order they were first seen
+		for (String word: wordOrder) {
+			int count = wordCount.get(word);
+			if (!inVocabulary(word, count)) {
+				rareWordCount.put(word, count);
 			}
 		}
+		wordOrder = null;
+		for (String word: rareWordCount.keySet()) {
+			wordCount.remove(word);
+		}
 		// Calculate & save IDF value
+		documentCount = lineNumber;
 		wordList = new ArrayList<String>();
 		for (Map.Entry<String, Integer> entry: wordCount.entrySet()) {
-			idfMap.put(entry.getKey(), (float) Math.log((float) lineNumber / entry.getValue()));
+			idfMap.put(entry.getKey(), idf(lineNumber, entry.getValue()));
 			wordList.add(entry.getKey());
 		}
 		// ARFF Attributions declaration
 		for (int i = 0; i < wordList.size(); i++) {
-			bw.write(String.format("@attribute tfidf_%s numeric\n", wordList.get(i)));
+			bw.write("@attribute tfidf_");
+			bw.write(wordList.get(i));
+			bw.write(" numeric\n");
 		}
 		for (int i = 0; i < tagList.size(); i++) {
-			bw.write(String.format("@attribute %s {0,1}\n", tagList.get(i).replace(' ', '_')));
+			bw.write("@attribute ");
+			bw.write(tagList.get(i).replace(' ', '_'));
+			bw.write(" {0,1}\n");
 		}
 		bw.write("\n@data\n");
 		
+		HashMap<String, Integer> wordIndex = new HashMap<String, Integer>();
+		for (int j = 0; j < wordList.size(); j++) {
+			wordIndex.put(wordList.get(j), j);
+		}
+		
 		// Calculate & save IF-IDF value to file
-		for (int i = 1; i <= lineNumber; i++) {
-			// Write IF-IDF features
-			for (int j = 0; j < wordList.size(); j++) {
-				String word = wordList.get(j);
-				if (j > 0) bw.write(",");
-				if (tfMap.get(i).containsKey(word)) {
-					bw.write(String.format("%f", tfMap.get(i).get(word) * idfMap.get(word)));
-				} else {
-					bw.write("0");
-				}
+		if (streaming) {
+			// Read the input again from the start, writing each row as soon as it is read
+			inputStream.getChannel().position(0);
+			record = new RecordReader(inputStream);
+			while (record.next()) {
+				HashMap<String, Integer> statistics = countWords(tokenizer, record, words);
+				writeRow(bw, termFrequency(statistics, words.size()), wordIndex, readTags(record));
 			}
-			// Write labels by 0/1
-			for (int j = 0; j < tagList.size(); j++) {
-				if (tagsMap.get(i).contains(tagList.get(j))) {
-					bw.write(",1");
-				} else {
-					bw.write(",0");
-				}
-				
+		} else {
+			for (int i = 1; i <= lineNumber; i++) {
+				writeRow(bw, tfMap.get(i), wordIndex, tagsMap.get(i));
 			}
-			bw.write("\n");
 		}
 		bw.close();
-		br.close();
+		record.close();
+	}
+	
+	/**
+	 * Count the words of the input as the loop of translate does, on a pool of threads,
+	 * into wordCount and, unless streaming, tfMap and tagsMap. The input is mapped and cut
+	 * into chunks at line ends, each chunk is counted into its own table and the tables are
+	 * merged in input order, so words enter wordCount and wordOrder in the order they would
+	 * one line at a time and wordCount iterates in the same order.
+	 * 
+	 * @return the number of lines
+	 */
+	private static int countParallel(FileInputStream inputStream, HashMap<String, Integer> wordCount)
+			throws IOException {
+		FileChannel channel = inputStream.getChannel();
+		if (channel.size() > Integer.MAX_VALUE) {
+			throw new IOException("Input is too large to count on several threads");
+		}
+		ByteBuffer input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		// A chunk can only be cut at a line end if no character's bytes hold '\n'
+		boolean cut = Arrays.equals("\n".getBytes(Charset.defaultCharset()), new byte[] {'\n'});
+		
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		LinkedList<Future<Chunk>> queue = new LinkedList<Future<Chunk>>();
+		int lineNumber = 0;
+		try {
+			int from = 0;
+			int size = input.limit();
+			while (from < size) {
+				int to = size;
+				if (cut && size - from > chunkBytes) {
+					to = from + chunkBytes;
+					while (to < size && input.get(to - 1) != '\n') to++;
+				}
+				ByteBuffer slice = input.duplicate();
+				slice.position(from);
+				slice.limit(to);
+				final ByteBuffer bytes = slice.slice();
+				if (queue.size() == chunksAhead * threads) {
+					lineNumber = merge(queue.removeFirst(), wordCount, lineNumber);
+				}
+				queue.add(pool.submit(new Callable<Chunk>() {
+					public Chunk call() throws IOException {
+						return countChunk(bytes);
+					}
+				}));
+				from = to;
+			}
+			while (!queue.isEmpty()) {
+				lineNumber = merge(queue.removeFirst(), wordCount, lineNumber);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		return lineNumber;
+	}
+	
+	/**
+	 * The document frequencies of the words of a chunk, in the order they first appear,
+	 * and unless streaming the TF and tags of its lines.
+	 */
+	private static class Chunk {
+		LinkedHashMap<String, Integer> wordCount = new LinkedHashMap<String, Integer>();
+		ArrayList<HashMap<String, Float>> termFrequency = new ArrayList<HashMap<String, Float>>();
+		ArrayList<Set<String>> tags = new ArrayList<Set<String>>();
+		int lines;
+	}
+	
+	private static Chunk countChunk(ByteBuffer bytes) throws IOException {
+		// Read as the RecordReader of translate reads the file
+		byte[] copy = new byte[bytes.remaining()];
+		bytes.get(copy);
+		RecordReader record = new RecordReader(new ByteArrayInputStream(copy));
+		Tokenizer tokenizer = Tokenizer.get();
+		ArrayList<String> words = new ArrayList<String>();
+		Chunk chunk = new Chunk();
+		while (record.next()) {
+			chunk.lines++;
+			HashMap<String, Integer> statistics = countWords(tokenizer, record, words);
+			for (String word: statistics.keySet()) {
+				count(chunk.wordCount, word, 1);
+			}
+			if (streaming) continue;
+			chunk.tags.add(readTags(record));
+			chunk.termFrequency.add(termFrequency(statistics, words.size()));
+		}
+		record.close();
+		return chunk;
+	}
+	
+	/**
+	 * Add the counts of a chunk, the lines after the first lineNumber.
+	 * 
+	 * @return the number of lines counted with the chunk
+	 */
+	private static int merge(Future<Chunk> future, HashMap<String, Integer> wordCount, int lineNumber)
+			throws IOException {
+		Chunk chunk;
+		try {
+			chunk = future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		}
+		for (Map.Entry<String, Integer> entry: chunk.wordCount.entrySet()) {
+			if (!wordCount.containsKey(entry.getKey())) wordOrder.add(entry.getKey());
+			count(wordCount, entry.getKey(), entry.getValue());
+		}
+		for (int i = 0; i < chunk.termFrequency.size(); i++) {
+			tfMap.put(lineNumber + i + 1, chunk.termFrequency.get(i));
+			tagsMap.put(lineNumber + i + 1, chunk.tags.get(i));
+		}
+		return lineNumber + chunk.lines;
+	}
+	
+	private static void count(Map<String, Integer> wordCount, String word, int n) {
+		Integer count = wordCount.get(word);
+		wordCount.put(word, count == null ? n : count + n);
+	}
+	
+	/**
+	 * Fold the lines of a delta file into the document counts of countsFile, without
+	 * reading the lines counted before, and compute the IDF of the vocabulary again. The
+	 * words of the vocabulary keep their index, the words the new lines bring up to the
+	 * thresholds are appended.
+	 * 
+	 * A file of the same name, size and number of lines as one counted before is refused,
+	 * so that its lines are not counted twice. tag_predict.arff is not written again: its
+	 * rows keep the IDF of before and have neither the new lines nor the new attributes,
+	 * so it has to be translated again from train.data with the new lines to match TFIDF.
+	 */
+	public static CountsFile update(File deltaFile) throws IOException {
+		CountsFile counts = CountsFile.load(countsFile);
+		RecordReader record = new RecordReader(new FileInputStream(deltaFile));
+		Tokenizer tokenizer = Tokenizer.get();
+		ArrayList<String> words = new ArrayList<String>();
+		int lines = 0;
+		while (record.next()) {
+			lines++;
+			counts.addDocument(countWords(tokenizer, record, words).keySet());
+		}
+		record.close();
+		if (counts.counted(deltaFile.getName(), deltaFile.length(), lines)) {
+			throw new IOException(deltaFile + " is already counted in " + countsFile);
+		}
+		counts.addInput(deltaFile.getName(), deltaFile.length(), lines);
+		int added = counts.extendVocabulary();
+		
+		wordList = counts.words;
+		idfMap = new HashMap<String, Float>();
+		for (String word: wordList) {
+			idfMap.put(word, idf(counts.documents, counts.counts.get(word)));
+		}
+		System.out.println(String.format("Folded in %d lines, %d in all; %d words added, %d in the vocabulary",
+				lines, counts.documents, added, wordList.size()));
+		System.out.println("tag_predict.arff is left as it was; translate train.data again to write it for TFIDF");
+		return counts;
+	}
+	
+	/**
+	 * Whether a word seen in count lines is made an attribute: words shown in fewer than
+	 * 3 lines or of length 2 or less are left out.
+	 */
+	static boolean inVocabulary(String word, int count) {
+		return count >= 3 && word.length() > 2;
+	}
+	
+	private static float idf(int documents, int count) {
+		return (float) Math.log((float) documents / count);
+	}
+	
+	/**
+	 * Cut the description of the current line into words and count each of them.
+	 */
+	private static HashMap<String, Integer> countWords(Tokenizer tokenizer, RecordReader record,
+			ArrayList<String> words) throws IOException {
+		words.clear();
+		tokenizer.cutWords(record, words);
+		
+		HashMap<String, Integer> statistics = new HashMap<String, Integer>();
+		for (String word: words) {
+			// Count in only this file (for TF)
+			if (statistics.get(word) == null) {
+				statistics.put(word, 1);
+			} else {
+				statistics.replace(word, statistics.get(word) + 1);
+			}
+		}
+		return statistics;
+	}
+	
+	private static HashMap<String, Float> termFrequency(HashMap<String, Integer> statistics, int nWords) {
+		HashMap<String, Float> termFrequency = new HashMap<String, Float>();
+		for (Map.Entry<String, Integer> entry: statistics.entrySet()) {
+			termFrequency.put(entry.getKey().toString(), (float)entry.getValue() / nWords);
+		}
+		return termFrequency;
+	}
+	
+	private static Set<String> readTags(RecordReader record) {
+		Set<String> tags = new HashSet<String>();
+		for (int i = 0; i < record.tagCount(); i++) {
+			tags.add(record.tag(i).toString());
+		}
+		return tags;
+	}
+	
+	private static void writeRow(BufferedWriter bw, HashMap<String, Float> termFrequency,
+			HashMap<String, Integer> wordIndex, Set<String> tags) throws IOException {
+		if (sparse) {
+			writeSparse(bw, termFrequency, wordIndex, tags);
+			return;
+		}
+		// Write IF-IDF features
+		for (int j = 0; j < wordList.size(); j++) {
+			String word = wordList.get(j);
+			if (j > 0) bw.write(",");
+			if (termFrequency.containsKey(word)) {
+				floatFormat.write(bw, termFrequency.get(word) * idfMap.get(word));
+			} else {
+				bw.write("0");
+			}
+		}
+		// Write labels by 0/1
+		for (int j = 0; j < tagList.size(); j++) {
+			if (tags.contains(tagList.get(j))) {
+				bw.write(",1");
+			} else {
+				bw.write(",0");
+			}
+			
+		}
+		bw.write("\n");
+	}
+	
+	/**
+	 * Write one row in sparse ARFF: the features of the words of the line, and then the
+	 * labels that are 1, by attribute index in increasing order.
+	 */
+	private static void writeSparse(BufferedWriter bw, HashMap<String, Float> termFrequency,
+			HashMap<String, Integer> wordIndex, Set<String> tags) throws IOException {
+		int[] features = new int[termFrequency.size()];
+		int n = 0;
+		for (String word: termFrequency.keySet()) {
+			Integer j = wordIndex.get(word);
+			if (j != null) features[n++] = j;
+		}
+		Arrays.sort(features, 0, n);
+		
+		bw.write("{");
+		boolean first = true;
+		for (int k = 0; k < n; k++) {
+			String word = wordList.get(features[k]);
+			if (!first) bw.write(",");
+			floatFormat.write(bw, features[k]);
+			bw.write(" ");
+			floatFormat.write(bw, termFrequency.get(word) * idfMap.get(word));
+			first = false;
+		}
+		for (int j = 0; j < tagList.size(); j++) {
+			if (tags.contains(tagList.get(j))) {
+				if (!first) bw.write(",");
+				floatFormat.write(bw, wordList.size() + j);
+				bw.write(" 1");
+				first = false;
+			}
+		}
+		bw.write("}\n");
 	}
 	
 	public static void generateTagList(FileInputStream tagFile) throws IOException {
@@ -181,23 +438,42 @@ public class Translate {
 	}
 	
 	public static void main(String[] args) throws FileNotFoundException, IOException {
+		// "-sparse" to write sparse ARFF, "-stream" to read train.data twice rather than hold it,
+		// "-threads n" to count the words on n threads, "-update file" to fold the lines of
+		// file into TFIDF.counts and write TFIDF again, instead of translating train.data;
+		// tag_predict.arff is not updated, translate again for rows matching the new TFIDF
+		String deltaFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-sparse")) sparse = true;
+			else if (args[i].equals("-stream")) streaming = true;
+			else if (args[i].equals("-threads") && i + 1 < args.length) threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-update") && i + 1 < args.length) deltaFile = args[++i];
+		}
 		
-		File inputFile = new File("train.data");
 		File tagFile = new File("AllTags.txt");
+		FileInputStream tagInputStram = new FileInputStream(tagFile);
+		generateTagList(tagInputStram);
+		tagInputStram.close();
+		
+		if (deltaFile != null) {
+			CountsFile counts = update(new File(deltaFile));
+			saveVocabulary();
+			counts.save(countsFile);
+			return;
+		}
+		
+		File inputFile = new File("train.data");
 		File outputFile = new File("tag_predict.arff");
 		File xmlOutputFile = new File("tag_predict.xml");
 		
 		outputFile.createNewFile();
 		FileInputStream inputStram = new FileInputStream(inputFile);
-		FileInputStream tagInputStram = new FileInputStream(tagFile);
 		FileOutputStream outputStream = new FileOutputStream(outputFile);
 		FileOutputStream xmlOutputStream = new FileOutputStream(xmlOutputFile);
 		
-		generateTagList(tagInputStram);
 		translate(inputStram, outputStream);
 		
 		inputStram.close();
-		tagInputStram.close();
 		outputStream.close();
 		
 		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(xmlOutputStream));
@@ -210,11 +486,25 @@ public class Translate {
 		bw.close();
 		xmlOutputStream.close();
 		
+		saveVocabulary();
+		// The counts of the vocabulary in attribute order, then of the words left out
+		LinkedHashMap<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (String word: wordList) {
+			counts.put(word, wordCount.get(word));
+		}
+		counts.putAll(rareWordCount);
+		CountsFile documentCounts = new CountsFile(documentCount, wordList, counts);
+		documentCounts.addInput(inputFile.getName(), inputFile.length(), documentCount);
+		documentCounts.save(countsFile);
+	}
+	
+	private static void saveVocabulary() throws IOException {
 		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("TFIDF"));
 		oos.writeObject(idfMap);
 		oos.writeObject(wordList);
 		oos.writeObject(tagList);
 		oos.close();
+		TfidfFile.save("TFIDF.vocab", "TFIDF", wordList, idfMap, tagList);
 	}
 
 }
@@ -0,0 +1,123 @@
+
+package org.tartarus.snowball;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The strings of an Among table in a trie, read forwards for find_among
+ * and from the last character back for find_among_b. One walk along the
+ * word gives the longest string of the table it starts (or ends) with,
+ * the entry the binary search of the generated code arrives at.
+ *
+ * The trie is flat: the edges of node n are label[first[n]] to
+ * label[first[n + 1] - 1], sorted, going to target[] of the same index.
+ */
+final class AmongTrie {
+
+    private final int[] first;
+    private final char[] label;
+    private final int[] target;
+    private final int[] entry;   // index in the table of the string ending at a node, or -1
+
+    AmongTrie(Among v[], int v_size, boolean backward)
+    {
+	Node root = new Node();
+	for (int i = 0; i < v_size; i++) {
+	    Among w = v[i];
+	    Node node = root;
+	    for (int k = 0; k < w.s_size; k++) {
+		char ch = w.s[backward ? w.s_size - 1 - k : k];
+		Node next = node.children.get(ch);
+		if (next == null) {
+		    next = new Node();
+		    node.children.put(ch, next);
+		}
+		node = next;
+	    }
+	    node.entry = i;
+	}
+
+	// number the nodes breadth first, so the edges of a node are contiguous
+	List<Node> nodes = new ArrayList<Node>();
+	nodes.add(root);
+	int edges = 0;
+	for (int n = 0; n < nodes.size(); n++) {
+	    Node node = nodes.get(n);
+	    for (Node child : node.children.values()) {
+		child.id = nodes.size();
+		nodes.add(child);
+		edges++;
+	    }
+	}
+	first = new int[nodes.size() + 1];
+	label = new char[edges];
+	target = new int[edges];
+	entry = new int[nodes.size()];
+	int e = 0;
+	for (int n = 0; n < nodes.size(); n++) {
+	    Node node = nodes.get(n);
+	    first[n] = e;
+	    entry[n] = node.entry;
+	    for (java.util.Map.Entry<Character, Node> edge : node.children.entrySet()) {
+		label[e] = edge.getKey();
+		target[e] = edge.getValue().id;
+		e++;
+	    }
+	}
+	first[nodes.size()] = e;
+    }
+
+    /**
+     * The index of the longest string of the table that s[c, l) starts
+     * with, or -1 if none.
+     */
+    int longest(char[] s, int c, int l)
+    {
+	int node = 0;
+	int best = entry[0];
+	while (c < l) {
+	    node = child(node, s[c++]);
+	    if (node < 0) break;
+	    if (entry[node] >= 0) best = entry[node];
+	}
+	return best;
+    }
+
+    /**
+     * The index of the longest string of the table that s[lb, c) ends
+     * with, or -1 if none.
+     */
+    int longest_b(char[] s, int c, int lb)
+    {
+	int node = 0;
+	int best = entry[0];
+	while (c > lb) {
+	    node = child(node, s[--c]);
+	    if (node < 0) break;
+	    if (entry[node] >= 0) best = entry[node];
+	}
+	return best;
+    }
+
+    private int child(int node, char ch)
+    {
+	int lo = first[node];
+	int hi = first[node + 1] - 1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    char m = label[mid];
+	    if (m < ch) lo = mid + 1;
+	    else if (m > ch) hi = mid - 1;
+	    else return target[mid];
+	}
+	return -1;
+    }
+
+    private static class Node {
+	final TreeMap<Character, Node> children = new TreeMap<Character, Node>();
+	int entry = -1;
+	int id;
+    }
+}
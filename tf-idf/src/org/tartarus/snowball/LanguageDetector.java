@@ -0,0 +1,301 @@
+
+package org.tartarus.snowball;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guesses the language of a text from its letter trigrams, to pick the
+ * stemmer for it.
+ *
+ * Each language has a profile of the trigrams of its most common words,
+ * which are what a short text is most likely to share with its
+ * language. A text scores the log probability of its trigrams under each
+ * profile, and the best scoring language wins, as long as enough of the
+ * trigrams are known to any profile; otherwise the text gets the default
+ * language. A profile is built once per language and kept for every
+ * detector. A detector is immutable and can be shared between threads;
+ * each thread scores in its own scratch state, so detecting allocates
+ * nothing.
+ *
+ * The profiles are mostly made of letters outside ASCII, so the text
+ * has to be given as it was read, not with those letters replaced.
+ */
+public class LanguageDetector {
+
+    // Common words of each language the profiles are built from
+    private static final String[][] SEEDS = {
+	{ "danish",
+	  "og i jeg det at en den til er som p\u00e5 de med han af for ikke " +
+	  "der var mig sig men et har om vi min havde ham hun nu over da fra " +
+	  "du ud sin dem os op man hans hvor eller hvad skal selv her alle " +
+	  "vil blev kunne ind n\u00e5r v\u00e6re" },
+	{ "dutch",
+	  "de en van ik te dat die in een hij het niet zijn is was op aan met " +
+	  "als voor had er maar om hem dan zou of wat mijn men dit zo door " +
+	  "over ze zich bij ook tot je mij uit der daar haar naar heb hoe " +
+	  "heeft" },
+	{ "english",
+	  "the of and to a in is it that for on with as was be by this are or " +
+	  "from at an not have has but which you they we can its their will " +
+	  "all one more use used when there been would other into can only " +
+	  "some than" },
+	{ "finnish",
+	  "olla ja on ei se ett\u00e4 h\u00e4n oli mutta kun niin my\u00f6s " +
+	  "joka ovat tai sek\u00e4 kuin jos vain mit\u00e4 sen t\u00e4m\u00e4 " +
+	  "ole nyt heid\u00e4n siit\u00e4 kanssa mukaan min\u00e4 sin\u00e4 " +
+	  "me te he t\u00e4m\u00e4n joiden jotka ollut olisi" },
+	{ "french",
+	  "de la le et les des en un du une est pour que qui dans a par sur " +
+	  "au il pas plus ne se ce avec sont ou son cette aux elle mais nous " +
+	  "vous leur on \u00eatre \u00e9t\u00e9 comme tout fait ces sans" },
+	{ "german",
+	  "der die und in den von zu das mit sich des auf f\u00fcr ist im dem " +
+	  "nicht ein eine als auch es an werden aus er hat dass sie nach wird " +
+	  "bei einer um am sind noch wie einem \u00fcber einen so zum war " +
+	  "haben nur oder aber vor zur bis mehr durch kann" },
+	{ "hungarian",
+	  "a az \u00e9s hogy nem is egy meg van volt de csak m\u00e1r el ez " +
+	  "m\u00e9g mint vagy kell lesz most azt ami mert sem ha pedig " +
+	  "ut\u00e1n k\u00f6z\u00f6tt szerint amely ezt arra olyan lehet vele" },
+	{ "italian",
+	  "di e il la che \u00e8 per un in non una del da si le con i sono " +
+	  "della al gli ha come ma pi\u00f9 anche lo alla nel questo se dei " +
+	  "delle ci essere tra questa loro" },
+	{ "norwegian",
+	  "og i jeg det at en et den til er som p\u00e5 de med han av ikke " +
+	  "der s\u00e5 var meg seg men ett har om vi min mitt ha hadde hun " +
+	  "n\u00e5 over da ved fra du ut sin dem oss opp" },
+	{ "portuguese",
+	  "de a o que e do da em um para \u00e9 com n\u00e3o uma os no se na " +
+	  "por mais as dos como mas foi ao ele das tem \u00e0 seu sua ou ser " +
+	  "quando muito h\u00e1 nos j\u00e1 est\u00e1" },
+	{ "romanian",
+	  "\u0219i de la \u00een a cu nu pe o c\u0103 un din se este pentru " +
+	  "sunt care mai ca sau dar au fi fost acest aceast\u0103 lui ei ce " +
+	  "acesta fiind avea" },
+	{ "russian",
+	  "\u0438 \u0432 \u043d\u0435 \u043d\u0430 \u0447\u0442\u043e \u044f " +
+	  "\u0441 \u043e\u043d \u043a\u0430\u043a \u0430 \u0442\u043e " +
+	  "\u0432\u0441\u0435 \u043e\u043d\u0430 \u0442\u0430\u043a " +
+	  "\u0435\u0433\u043e \u043d\u043e \u0434\u0430 \u0442\u044b \u043a " +
+	  "\u0443 \u0436\u0435 \u0432\u044b \u0437\u0430 \u0431\u044b " +
+	  "\u043f\u043e \u0442\u043e\u043b\u044c\u043a\u043e \u0435\u0435 " +
+	  "\u043c\u043d\u0435 \u0431\u044b\u043b\u043e \u0432\u043e\u0442 " +
+	  "\u043e\u0442 \u043c\u0435\u043d\u044f \u0435\u0449\u0435 " +
+	  "\u043d\u0435\u0442 \u043e \u0438\u0437 \u0435\u043c\u0443" },
+	{ "spanish",
+	  "de la que el en y a los del se las por un para con no una su al es " +
+	  "lo como m\u00e1s pero sus le ya o este fue ha s\u00ed porque esta " +
+	  "entre cuando muy sin sobre tambi\u00e9n" },
+	{ "swedish",
+	  "och det att i en jag hon som han p\u00e5 den med var sig f\u00f6r " +
+	  "s\u00e5 till \u00e4r men ett om hade de av icke mig du henne " +
+	  "d\u00e5 sin nu har inte hans honom skulle hennes d\u00e4r min" },
+	{ "turkish",
+	  "ve bir bu da de i\u00e7in ile \u00e7ok ne daha gibi olarak en ama " +
+	  "kadar var olan sonra ki her o m\u0131 diye ben sen de\u011fil " +
+	  "\u015fey ise bunu oldu\u011fu" },
+    };
+
+    // Fewer trigrams known to the profiles than this leave a text to the default language
+    private static final int MIN_TRIGRAMS = 8;
+
+    // How much better per trigram, in nats, another language must score than the default one
+    private static final double MARGIN = 0.5;
+
+    // Pseudo-count of a trigram a language's profile has not seen
+    private static final double ALPHA = 0.5;
+
+    private static final Map<String, Map<Long, Integer>> profiles = new HashMap<String, Map<Long, Integer>>();
+
+    private final String[] languages;
+    private final String defaultLanguage;
+    private final int defaultIndex;
+
+    // Open addressing table of the trigrams of all the profiles, 0 for an empty slot
+    private final long[] keys;
+    // logProb[slot * languages.length + l], log probability of the trigram in language l
+    private final float[] logProb;
+    private final int mask;
+
+    // The scores of the text being detected, one per thread
+    private final ThreadLocal<Scorer> scorer = new ThreadLocal<Scorer>() {
+	@Override
+	protected Scorer initialValue() {
+	    return new Scorer();
+	}
+    };
+
+    /**
+     * @param defaultLanguage the language of a text too short to tell
+     * @param languages       the languages to choose from, Stemmers
+     *                        names; "porter" is taken as "english"
+     */
+    public LanguageDetector(String defaultLanguage, String... languages)
+    {
+	List<String> names = new ArrayList<String>();
+	for (String language : languages) {
+	    String name = language.equals("porter") ? "english" : language;
+	    if (!names.contains(name)) names.add(name);
+	}
+	if (!names.contains(defaultLanguage)) names.add(defaultLanguage);
+	this.languages = names.toArray(new String[names.size()]);
+	this.defaultLanguage = defaultLanguage;
+	this.defaultIndex = names.indexOf(defaultLanguage);
+
+	List<Map<Long, Integer>> counts = new ArrayList<Map<Long, Integer>>();
+	Map<Long, Integer> all = new HashMap<Long, Integer>();
+	for (String name : this.languages) {
+	    Map<Long, Integer> profile = profile(name);
+	    counts.add(profile);
+	    for (Long key : profile.keySet()) all.put(key, 0);
+	}
+
+	int size = Integer.highestOneBit(Math.max(all.size(), 1) * 2) * 2;
+	keys = new long[size];
+	logProb = new float[size * this.languages.length];
+	mask = size - 1;
+	for (Long key : all.keySet()) {
+	    int slot = slot(key);
+	    keys[slot] = key;
+	    for (int l = 0; l < this.languages.length; l++) {
+		Map<Long, Integer> profile = counts.get(l);
+		int total = 0;
+		for (int n : profile.values()) total += n;
+		Integer n = profile.get(key);
+		logProb[slot * this.languages.length + l] = (float)
+		    Math.log(((n == null ? 0 : n) + ALPHA) / (total + ALPHA * all.size()));
+	    }
+	}
+    }
+
+    /**
+     * The trigram counts of a language, built from its seed words the
+     * first time any detector asks for them.
+     */
+    private static Map<Long, Integer> profile(String language)
+    {
+	synchronized (profiles) {
+	    Map<Long, Integer> profile = profiles.get(language);
+	    if (profile == null) {
+		String seed = null;
+		for (String[] s : SEEDS) {
+		    if (s[0].equals(language)) seed = s[1];
+		}
+		if (seed == null) {
+		    throw new IllegalArgumentException("No language profile for " + language);
+		}
+		final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		trigrams(seed, new TrigramVisitor() {
+		    public void visit(long key) {
+			Integer n = counts.get(key);
+			counts.put(key, n == null ? 1 : n + 1);
+		    }
+		});
+		profile = counts;
+		profiles.put(language, profile);
+	    }
+	    return profile;
+	}
+    }
+
+    public String[] languages()
+    {
+	return languages.clone();
+    }
+
+    /**
+     * Guess the language of text.
+     *
+     * @return one of languages()
+     */
+    public String detect(CharSequence text)
+    {
+	Scorer scorer = this.scorer.get();
+	scorer.reset();
+	trigrams(text, scorer);
+	double[] score = scorer.score;
+	int known = scorer.known;
+	if (known < MIN_TRIGRAMS) return defaultLanguage;
+	int best = 0;
+	for (int l = 1; l < score.length; l++) {
+	    if (score[l] > score[best]) best = l;
+	}
+	if (score[best] - score[defaultIndex] < MARGIN * known) return defaultLanguage;
+	return languages[best];
+    }
+
+    /**
+     * Adds up the log probabilities of the trigrams of a text under each
+     * language, and counts the trigrams known to any of them.
+     */
+    private class Scorer implements TrigramVisitor {
+	final double[] score = new double[languages.length];
+	int known;
+
+	void reset()
+	{
+	    Arrays.fill(score, 0);
+	    known = 0;
+	}
+
+	public void visit(long key)
+	{
+	    int slot = slot(key);
+	    if (keys[slot] == 0) return;
+	    known++;
+	    int n = score.length;
+	    int base = slot * n;
+	    for (int l = 0; l < n; l++) {
+		score[l] += logProb[base + l];
+	    }
+	}
+    }
+
+    /**
+     * The slot of key in keys, or the empty slot where it would go.
+     */
+    private int slot(long key)
+    {
+	int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+	int i = (h ^ (h >>> 16)) & mask;
+	while (keys[i] != 0 && keys[i] != key) {
+	    i = (i + 1) & mask;
+	}
+	return i;
+    }
+
+    private interface TrigramVisitor {
+	void visit(long key);
+    }
+
+    /**
+     * Visit the trigrams of the words of text, lower-cased, each word
+     * with a space before and after it; anything not a letter ends a
+     * word. A trigram is packed as three chars into a long.
+     */
+    private static void trigrams(CharSequence text, TrigramVisitor visitor)
+    {
+	long key = ' ';
+	int inWord = 0;
+	for (int i = 0; i <= text.length(); i++) {
+	    char ch = i < text.length() ? text.charAt(i) : ' ';
+	    if (Character.isLetter(ch)) {
+		ch = Character.toLowerCase(ch);
+	    } else {
+		if (inWord == 0) continue;
+		ch = ' ';
+	    }
+	    key = (key << 16 | ch) & 0xFFFFFFFFFFFFL;
+	    inWord = ch == ' ' ? 0 : inWord + 1;
+	    // the space before a word is the first of its first trigram
+	    if (inWord >= 2 || ch == ' ') {
+		visitor.visit(key);
+	    }
+	}
+    }
+}
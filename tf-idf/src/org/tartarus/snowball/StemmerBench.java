@@ -0,0 +1,348 @@
+
+package org.tartarus.snowball;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Measures the throughput of the stemmers, in words stemmed per second,
+ * and how many bytes they allocate per word, over word lists.
+ *
+ * Each run warms the stemmer up first, then times several fixed-length
+ * iterations over the list and reports their mean with a 99.9%
+ * confidence half-width. The results can be written as JSON laid out
+ * like JMH's, so that runs can be compared with the same tools.
+ *
+ * A file ending in ".data" is read as train.data: the words are the
+ * tokens the Tokenizer stems, StandardAnalyzer's lower-cased words
+ * without stop words and numbers, in corpus order, so common words come
+ * up as often as the stemmers meet them in production. Any other file
+ * is read as white-space separated words, as TestApp reads it.
+ */
+public class StemmerBench {
+    private static void usage()
+    {
+        System.err.println("Usage: StemmerBench [-a <algorithm,...|all>] [-w <warm-up iterations>] [-i <iterations>] [-s <seconds per iteration>] [-json <file>] <word file>...");
+    }
+
+    // Iterations run and thrown away before measuring
+    private static int warmupIterations = 3;
+
+    // Iterations measured
+    private static int iterations = 5;
+
+    // Length of each iteration
+    private static double iterationSeconds = 1.0;
+
+    // Keeps the stems alive so that the JIT cannot drop the stemming
+    private static long sink;
+
+    public static void main(String [] args) throws IOException {
+	String algorithms = "all";
+	String jsonFile = null;
+	List<String> files = new ArrayList<String>();
+	for (int i = 0; i < args.length; i++) {
+	    if (args[i].equals("-a") && i + 1 < args.length) {
+		algorithms = args[++i];
+	    } else if (args[i].equals("-w") && i + 1 < args.length) {
+		warmupIterations = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-i") && i + 1 < args.length) {
+		iterations = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-s") && i + 1 < args.length) {
+		iterationSeconds = Double.parseDouble(args[++i]);
+	    } else if (args[i].equals("-json") && i + 1 < args.length) {
+		jsonFile = args[++i];
+	    } else {
+		files.add(args[i]);
+	    }
+	}
+	if (files.isEmpty() || iterations < 1) {
+	    usage();
+	    return;
+	}
+	String[] names = algorithms.equals("all") ?
+	    Stemmers.languages() : algorithms.split(",");
+
+	List<Result> results = new ArrayList<Result>();
+	for (String file : files) {
+	    String[] words = readWords(file);
+	    System.out.println(String.format("# %s: %d words", file, words.length));
+	    for (String name : names) {
+		Result result = run(name, file, words);
+		System.out.println(result);
+		results.add(result);
+	    }
+	}
+	if (jsonFile != null) {
+	    writeJson(jsonFile, results);
+	}
+    }
+
+    private static Result run(String name, String file, String[] words)
+    {
+	SnowballStemmer stemmer = Stemmers.create(name);
+	for (int i = 0; i < warmupIterations; i++) {
+	    iteration(stemmer, words);
+	}
+	Result result = new Result(name, file, iterations);
+	for (int i = 0; i < iterations; i++) {
+	    long bytes = allocatedBytes();
+	    long start = System.nanoTime();
+	    long n = iteration(stemmer, words);
+	    double seconds = (System.nanoTime() - start) / 1e9;
+	    bytes = allocatedBytes() - bytes;
+	    result.opsPerSecond[i] = n / seconds;
+	    result.bytesPerOp[i] = bytes < 0 ? Double.NaN : (double) bytes / n;
+	}
+	return result;
+    }
+
+    /**
+     * Stem words over and over for iterationSeconds, checking the clock
+     * only between passes over the list.
+     *
+     * @return the number of words stemmed
+     */
+    private static long iteration(SnowballStemmer stemmer, String[] words)
+    {
+	long deadline = System.nanoTime() + (long) (iterationSeconds * 1e9);
+	long n = 0;
+	long sum = 0;
+	do {
+	    for (String word : words) {
+		stemmer.setCurrent(word);
+		stemmer.stem();
+		sum += stemmer.getCurrentBufferLength();
+	    }
+	    n += words.length;
+	} while (System.nanoTime() < deadline);
+	sink += sum;
+	return n;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM
+     * does not count them.
+     */
+    private static long allocatedBytes()
+    {
+	java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+	if (bean instanceof com.sun.management.ThreadMXBean) {
+	    com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+	    if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	    }
+	}
+	return -1;
+    }
+
+    private static String[] readWords(String file) throws IOException
+    {
+	if (file.endsWith(".data")) {
+	    return readTokens(file);
+	}
+	BufferedReader in = new BufferedReader(
+		new InputStreamReader(new FileInputStream(file), "UTF-8"));
+	List<String> words = new ArrayList<String>();
+	StringBuilder word = new StringBuilder();
+	try {
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		for (int i = 0; i <= line.length(); i++) {
+		    char ch = i < line.length() ? line.charAt(i) : ' ';
+		    if (!Character.isWhitespace(ch)) {
+			word.append(Character.toLowerCase(ch));
+		    } else if (word.length() > 0) {
+			words.add(word.toString());
+			word.setLength(0);
+		    }
+		}
+	    }
+	} finally {
+	    in.close();
+	}
+	return words.toArray(new String[words.size()]);
+    }
+
+    /**
+     * The words the Tokenizer hands to the stemmer for the descriptions
+     * of a data file: each description read and sanitized as RecordReader
+     * does, cut by StandardAnalyzer, lower-cased and without stop words,
+     * and numbers left out.
+     */
+    private static String[] readTokens(String file) throws IOException
+    {
+	// RecordReader reads with the default charset
+	BufferedReader in = new BufferedReader(
+		new InputStreamReader(new FileInputStream(file)));
+	Analyzer analyzer = new StandardAnalyzer();
+	List<String> words = new ArrayList<String>();
+	try {
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		String[] split = line.split("#\\$#");
+		if (split.length < 2) continue;
+		String text = split[1].replaceAll("[^\\x20-\\x7F]", "_");
+		TokenStream tokens = analyzer.tokenStream("", text);
+		try {
+		    CharTermAttribute term = tokens.getAttribute(CharTermAttribute.class);
+		    tokens.reset();
+		    while (tokens.incrementToken()) {
+			String word = term.toString();
+			if (word.matches("^\\d+(\\.\\d+)?$")) continue;
+			words.add(word);
+		    }
+		    tokens.end();
+		} finally {
+		    tokens.close();
+		}
+	    }
+	} finally {
+	    in.close();
+	    analyzer.close();
+	}
+	return words.toArray(new String[words.size()]);
+    }
+
+    private static void writeJson(String file, List<Result> results) throws IOException
+    {
+	Writer out = new BufferedWriter(
+		new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	try {
+	    out.write("[\n");
+	    for (int i = 0; i < results.size(); i++) {
+		results.get(i).writeJson(out);
+		out.write(i == results.size() - 1 ? "\n" : ",\n");
+	    }
+	    out.write("]\n");
+	} finally {
+	    out.close();
+	}
+    }
+
+    private static class Result {
+	final String algorithm;
+	final String file;
+	final double[] opsPerSecond;
+	final double[] bytesPerOp;
+
+	Result(String algorithm, String file, int iterations)
+	{
+	    this.algorithm = algorithm;
+	    this.file = file;
+	    this.opsPerSecond = new double[iterations];
+	    this.bytesPerOp = new double[iterations];
+	}
+
+	public String toString()
+	{
+	    return String.format("%-12s %14.0f +- %10.0f words/s %10.2f B/word",
+				 algorithm, mean(opsPerSecond), error(opsPerSecond),
+				 mean(bytesPerOp));
+	}
+
+	void writeJson(Writer out) throws IOException
+	{
+	    out.write("  {\n");
+	    out.write("    \"benchmark\" : \"org.tartarus.snowball.StemmerBench." + algorithm + "\",\n");
+	    out.write("    \"mode\" : \"thrpt\",\n");
+	    out.write("    \"threads\" : 1,\n");
+	    out.write("    \"warmupIterations\" : " + warmupIterations + ",\n");
+	    out.write("    \"measurementIterations\" : " + opsPerSecond.length + ",\n");
+	    out.write("    \"measurementTime\" : \"" + iterationSeconds + " s\",\n");
+	    out.write("    \"params\" : {\n");
+	    out.write("      \"words\" : " + quote(file) + "\n");
+	    out.write("    },\n");
+	    out.write("    \"primaryMetric\" : ");
+	    writeMetric(out, opsPerSecond, "ops/s");
+	    out.write(",\n");
+	    out.write("    \"secondaryMetrics\" : {\n");
+	    out.write("      \"\u00b7gc.alloc.rate.norm\" : ");
+	    writeMetric(out, bytesPerOp, "B/op");
+	    out.write("\n    }\n");
+	    out.write("  }");
+	}
+
+	private static void writeMetric(Writer out, double[] values, String unit) throws IOException
+	{
+	    out.write("{ \"score\" : " + number(mean(values))
+		      + ", \"scoreError\" : " + number(error(values))
+		      + ", \"scoreUnit\" : \"" + unit + "\", \"rawData\" : [ [ ");
+	    for (int i = 0; i < values.length; i++) {
+		if (i > 0) out.write(", ");
+		out.write(number(values[i]));
+	    }
+	    out.write(" ] ] }");
+	}
+
+	private static String number(double x)
+	{
+	    return Double.isNaN(x) || Double.isInfinite(x) ? "\"NaN\"" : Double.toString(x);
+	}
+
+	private static String quote(String s)
+	{
+	    return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+    }
+
+    private static double mean(double[] values)
+    {
+	double sum = 0;
+	for (double x : values) sum += x;
+	return sum / values.length;
+    }
+
+    /**
+     * Half-width of the 99.9% confidence interval of the mean, with the
+     * quantile of Student's t for n - 1 degrees of freedom, as JMH does.
+     */
+    private static double error(double[] values)
+    {
+	int n = values.length;
+	if (n < 2) return Double.NaN;
+	double mean = mean(values);
+	double sum = 0;
+	for (double x : values) sum += (x - mean) * (x - mean);
+	return studentT(n - 1) * Math.sqrt(sum / (n - 1)) / Math.sqrt(n);
+    }
+
+    // The 0.9995 quantiles of Student's t for 1 to 30 degrees of freedom
+    private static final double[] T_QUANTILES = {
+	636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+	4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+	3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646
+    };
+
+    // The 0.9995 quantile of the normal distribution
+    private static final double Z = 3.2905267314919;
+
+    /**
+     * The 0.9995 quantile of Student's t for df degrees of freedom: from
+     * the table up to 30, above by the Cornish-Fisher expansion around
+     * the normal quantile, within 0.001 there.
+     */
+    static double studentT(int df)
+    {
+	if (df <= T_QUANTILES.length) return T_QUANTILES[df - 1];
+	double z2 = Z * Z;
+	double d = df;
+	return Z + Z * (z2 + 1) / (4 * d)
+	    + Z * ((5 * z2 + 16) * z2 + 3) / (96 * d * d)
+	    + Z * (((3 * z2 + 19) * z2 + 17) * z2 - 15) / (384 * d * d * d);
+    }
+}
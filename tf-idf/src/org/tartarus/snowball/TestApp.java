@@ -1,7 +1,6 @@
 
 package org.tartarus.snowball;
 
-import java.lang.reflect.Method;
 import java.io.Reader;
 import java.io.Writer;
 import java.io.BufferedReader;
@@ -11,22 +10,69 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.OutputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TestApp {
     private static void usage()
     {
         System.err.println("Usage: TestApp <algorithm> <input file> [-o <output file>]");
+        System.err.println("       TestApp [-t <threads>] [-a <algorithm,...|all>] [<algorithm>] <input file> [-o <output file>]");
     }
 
+    // Bytes of input a batch task stems, cut at the next line end
+    private static int chunkBytes = 1 << 16;
+
+    // Chunks being stemmed ahead of the one written next, per thread
+    private static int chunksAhead = 4;
+
     public static void main(String [] args) throws Throwable {
+	int threads = 0;
+	String algorithms = null;
+	List<String> rest = new ArrayList<String>();
+	for (int i = 0; i < args.length; i++) {
+	    if (args[i].equals("-t") && i + 1 < args.length) {
+		threads = Integer.parseInt(args[++i]);
+	    } else if (args[i].equals("-a") && i + 1 < args.length) {
+		algorithms = args[++i];
+	    } else {
+		rest.add(args[i]);
+	    }
+	}
+	if (threads > 0 || algorithms != null) {
+	    batch(algorithms, rest, Math.max(threads, 1));
+	    return;
+	}
+
 	if (args.length < 2) {
             usage();
             return;
         }
 
-	Class stemClass = Class.forName("org.tartarus.snowball.ext." +
-					args[0] + "Stemmer");
-        SnowballStemmer stemmer = (SnowballStemmer) stemClass.newInstance();
+        SnowballStemmer stemmer;
+	try {
+	    stemmer = Stemmers.create(args[0]);
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    usage();
+	    return;
+	}
 
 	Reader reader;
 	reader = new InputStreamReader(new FileInputStream(args[1]));
@@ -54,7 +100,6 @@ public class TestApp {
 	    repeat = Integer.parseInt(args[4]);
 	}
 
-	Object [] emptyArgs = new Object[0];
 	int character;
 	while ((character = reader.read()) != -1) {
 	    char ch = (char) character;
@@ -74,4 +119,201 @@ public class TestApp {
 	}
 	output.flush();
     }
+
+    /**
+     * Batch mode: the input file is mapped, cut into chunks at line ends
+     * and stemmed by a pool of threads, each chunk decoded and split on
+     * its own; the stems are written in input order. The words and stems
+     * are the same as the one-character-at-a-time mode gives. With -a
+     * every algorithm listed is run in turn, and the words per second of
+     * each are printed.
+     */
+    private static void batch(String algorithms, List<String> rest, int threads)
+	throws IOException
+    {
+	String[] names;
+	if (algorithms == null) {
+	    if (rest.isEmpty()) {
+		usage();
+		return;
+	    }
+	    names = new String[] { rest.remove(0) };
+	} else if (algorithms.equals("all")) {
+	    names = Stemmers.languages();
+	} else {
+	    names = algorithms.split(",");
+	}
+	String outputFile = null;
+	if (rest.size() == 3 && rest.get(1).equals("-o")) {
+	    outputFile = rest.get(2);
+	} else if (rest.size() != 1) {
+	    usage();
+	    return;
+	}
+	for (String name : names) {
+	    try {
+		Stemmers.create(name);
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e.getMessage());
+		usage();
+		return;
+	    }
+	}
+
+	ByteBuffer input;
+	FileInputStream in = new FileInputStream(rest.get(0));
+	try {
+	    FileChannel channel = in.getChannel();
+	    if (channel.size() > Integer.MAX_VALUE) {
+		throw new IOException(rest.get(0) + " is too large for batch mode");
+	    }
+	    input = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	} finally {
+	    in.close();
+	}
+
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+	try {
+	    for (String name : names) {
+		OutputStream outstream = null;
+		if (outputFile == null) {
+		    // stems of a single algorithm go to stdout as in the other mode
+		    if (names.length == 1) outstream = System.out;
+		} else {
+		    outstream = new FileOutputStream(names.length == 1 ?
+						     outputFile : outputFile + "." + name);
+		}
+		Writer output = null;
+		if (outstream != null) {
+		    output = new BufferedWriter(new OutputStreamWriter(outstream));
+		}
+		long start = System.nanoTime();
+		long words;
+		try {
+		    words = stemAll(pool, threads, name, input, output);
+		} finally {
+		    if (output != null) {
+			if (outstream == System.out) {
+			    output.flush();
+			} else {
+			    output.close();
+			}
+		    }
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(String.format("%s: %d words in %.3f s, %.0f words/s",
+						 name, words, seconds, words / seconds));
+	    }
+	} finally {
+	    pool.shutdownNow();
+	}
+    }
+
+    private static long stemAll(ExecutorService pool, int threads, final String name,
+				ByteBuffer input, Writer output) throws IOException
+    {
+	// A chunk can only be cut at a line end if no character's bytes hold '\n'
+	boolean cut = Arrays.equals("\n".getBytes(Charset.defaultCharset()), new byte[] { '\n' });
+	LinkedList<Future<Chunk>> queue = new LinkedList<Future<Chunk>>();
+	int capacity = chunksAhead * threads;
+	long words = 0;
+	int from = 0;
+	int size = input.limit();
+	while (from < size) {
+	    int to = size;
+	    if (cut && size - from > chunkBytes) {
+		to = from + chunkBytes;
+		while (to < size && input.get(to - 1) != '\n') to++;
+	    }
+	    ByteBuffer slice = input.duplicate();
+	    slice.position(from);
+	    slice.limit(to);
+	    final ByteBuffer bytes = slice.slice();
+	    if (queue.size() == capacity) {
+		words += write(queue.removeFirst(), output);
+	    }
+	    queue.add(pool.submit(new Callable<Chunk>() {
+		public Chunk call() {
+		    return stemChunk(Stemmers.get(name), bytes);
+		}
+	    }));
+	    from = to;
+	}
+	while (!queue.isEmpty()) {
+	    words += write(queue.removeFirst(), output);
+	}
+	return words;
+    }
+
+    private static int write(Future<Chunk> future, Writer output) throws IOException
+    {
+	Chunk chunk;
+	try {
+	    chunk = future.get();
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException();
+	} catch (ExecutionException e) {
+	    throw new IOException(e.getCause());
+	}
+	if (output != null) {
+	    output.write(chunk.stems, 0, chunk.length);
+	}
+	return chunk.words;
+    }
+
+    /**
+     * Stems of one chunk, one per line.
+     */
+    private static class Chunk {
+	char[] stems = new char[256];
+	int length;
+	int words;
+
+	void append(char[] s, int len)
+	{
+	    if (length + len + 1 > stems.length) {
+		stems = Arrays.copyOf(stems, Math.max(length + len + 1, stems.length * 2));
+	    }
+	    System.arraycopy(s, 0, stems, length, len);
+	    length += len;
+	    stems[length++] = '\n';
+	    words++;
+	}
+    }
+
+    private static Chunk stemChunk(SnowballStemmer stemmer, ByteBuffer bytes)
+    {
+	CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+	    .onMalformedInput(CodingErrorAction.REPLACE)
+	    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+	CharBuffer chars;
+	try {
+	    chars = decoder.decode(bytes);
+	} catch (CharacterCodingException e) {
+	    // cannot happen with REPLACE
+	    throw new IllegalStateException(e);
+	}
+	char[] text = chars.array();
+	int end = chars.arrayOffset() + chars.limit();
+	Chunk chunk = new Chunk();
+	char[] word = new char[64];
+	int len = 0;
+	for (int i = chars.arrayOffset(); i < end; i++) {
+	    char ch = text[i];
+	    if (Character.isWhitespace(ch)) {
+		if (len > 0) {
+		    stemmer.setCurrent(word, 0, len);
+		    stemmer.stem();
+		    chunk.append(stemmer.getCurrentBuffer(), stemmer.getCurrentBufferLength());
+		    len = 0;
+		}
+	    } else {
+		if (len == word.length) word = Arrays.copyOf(word, len * 2);
+		word[len++] = Character.toLowerCase(ch);
+	    }
+	}
+	// only the last chunk can end inside a word, which is dropped as
+	// the other mode drops a word with no white space after it
+	return chunk;
+    }
 }